@@ -0,0 +1,52 @@
+package ru.mail.polis;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of a single insert into an {@link AVLTree} of growing size.
+ * With cached heights the time per insert should grow as log(n):
+ * the last column (ns per insert divided by log2(n)) has to stay roughly flat.
+ */
+public class AVLTreeBenchmark {
+
+    private static final int BATCH = 10_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 22;
+        Random rnd = new Random(42);
+        //Прогрев
+        for (int i = 0; i < 3; i++) {
+            measure(1 << 16, rnd);
+        }
+        System.out.printf("%10s %8s %12s %14s%n", "size", "log2(n)", "ns/insert", "ns/log2(n)");
+        for (int n = 1 << 10; n <= maxSize; n <<= 1) {
+            double best = Double.MAX_VALUE;
+            for (int r = 0; r < ROUNDS; r++) {
+                best = Math.min(best, measure(n, rnd));
+            }
+            double log = Math.log(n) / Math.log(2);
+            System.out.printf("%10d %8.0f %12.1f %14.2f%n", n, log, best, best / log);
+        }
+    }
+
+    /**
+     * Fills a tree with n random keys and returns the average time
+     * of inserting another {@link #BATCH} keys into it
+     */
+    private static double measure(int n, Random rnd) {
+        AVLTree<Integer> tree = new AVLTree<>();
+        while (tree.size() < n) {
+            tree.add(rnd.nextInt());
+        }
+        Integer[] keys = new Integer[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            keys[i] = rnd.nextInt();
+        }
+        long start = System.nanoTime();
+        for (Integer key : keys) {
+            tree.add(key);
+        }
+        return (double) (System.nanoTime() - start) / BATCH;
+    }
+}
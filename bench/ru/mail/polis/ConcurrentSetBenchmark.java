@@ -0,0 +1,124 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Throughput of a shared set under a read-mostly mix (90% contains, 9% add, 1% remove)
+ * for 1, 2, 4, ... threads. {@link ConcurrentChainHashTable} and {@link LockFreeSkipList}
+ * are compared with {@link ChainHashTable} and {@link AVLTree} behind a global lock.
+ * <p>
+ * Arguments (optional): maximum number of threads (default 32),
+ * number of distinct keys (default 1000000), seconds per measurement (default 3).
+ */
+public class ConcurrentSetBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        System.out.printf("%-26s %8s %14s%n", "impl", "threads", "Mops/s");
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            run("ConcurrentChainHashTable", ConcurrentChainHashTable::new, threads, keys, seconds);
+            run("synchronized ChainHashTable", () -> new SynchronizedSet<>(new ChainHashTable<Integer>()),
+                    threads, keys, seconds);
+            run("LockFreeSkipList", LockFreeSkipList::new, threads, keys, seconds);
+            run("synchronized AVLTree", () -> new SynchronizedSet<>(new AVLTree<Integer>()),
+                    threads, keys, seconds);
+        }
+    }
+
+    private static void run(String name, Supplier<ISet<Integer>> factory,
+                            int threads, int keys, int seconds) throws InterruptedException {
+        ISet<Integer> set = factory.get();
+        for (int i = 0; i < keys; i += 2) {
+            set.add(i);
+        }
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long done = 0;
+                while ((done & 1023) != 0 || System.nanoTime() < deadline[0]) {
+                    Integer key = rnd.nextInt(keys);
+                    int dice = rnd.nextInt(100);
+                    if (dice < 90) {
+                        set.contains(key);
+                    } else if (dice < 99) {
+                        set.add(key);
+                    } else {
+                        set.remove(key);
+                    }
+                    done++;
+                }
+                ops.add(done);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + seconds * 1_000_000_000L;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-26s %8d %14.2f%n", name, threads, ops.sum() / elapsed / 1e6);
+    }
+
+    /**
+     * What the services do today: every operation under one lock
+     */
+    private static class SynchronizedSet<E extends Comparable<E>> implements ISet<E> {
+
+        private final ISet<E> set;
+
+        SynchronizedSet(ISet<E> set) {
+            this.set = set;
+        }
+
+        @Override
+        public synchronized int size() {
+            return set.size();
+        }
+
+        @Override
+        public synchronized boolean isEmpty() {
+            return set.isEmpty();
+        }
+
+        @Override
+        public synchronized boolean contains(E value) {
+            return set.contains(value);
+        }
+
+        @Override
+        public synchronized boolean add(E value) {
+            return set.add(value);
+        }
+
+        @Override
+        public synchronized boolean remove(E value) {
+            return set.remove(value);
+        }
+
+        @Override
+        public Spliterator<E> spliterator() {
+            return set.spliterator();
+        }
+    }
+}
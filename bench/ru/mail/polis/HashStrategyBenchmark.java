@@ -0,0 +1,162 @@
+package ru.mail.polis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Compares the {@link HashStrategy} implementations on several kinds of keys.
+ * <p>
+ * Quality: the keys are spread over twice as many buckets by the low bits of the hash,
+ * as {@link ChainHashTable} does. {@code chain} is the mean number of keys a successful lookup walks,
+ * about 1.25 for a uniform hash; {@code max} is the longest bucket.
+ * Speed: {@code ns/index} is the time to hash a key and take its bucket index by a mask;
+ * the {@code modulo} row takes the index of the raw hash code by a division, as the tables did before.
+ * {@code chain ns} and {@code open ns} are the times of {@code contains} in the tables built with the strategy.
+ * <p>
+ * Usage: {@code java ru.mail.polis.HashStrategyBenchmark [size]}
+ */
+public class HashStrategyBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int COLLIDING_BLOCKS = 25;
+
+    private interface Index<E> {
+        int of(E key, int buckets);
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 18;
+        Random rnd = new Random(42);
+        //Прогрев
+        Integer[] warmUp = ints(1 << 16, i -> i);
+        for (int i = 0; i < 3; i++) {
+            timeIndex(warmUp, warmUp.length, (key, length) -> (key.hashCode() & Integer.MAX_VALUE) % length);
+            timeIndex(warmUp, warmUp.length, (key, length) -> key.hashCode() & (length - 1));
+        }
+        System.out.printf("%-18s %-9s %8s %6s %9s %9s %9s%n",
+                "keys", "strategy", "chain", "max", "ns/index", "chain ns", "open ns");
+        run("sequential ints", ints(n, i -> i), HashStrategyBenchmark.<Integer>strategies());
+        run("ints * 1024", ints(n, i -> i << 10), HashStrategyBenchmark.<Integer>strategies());
+        Map<String, HashStrategy<? super String>> strings = strategies();
+        strings.put("wyhash", HashStrategy.wyhash());
+        run("random letters", letters(n, rnd), strings);
+        run("colliding strings", colliding(n), strings);
+    }
+
+    private static <E> Map<String, HashStrategy<? super E>> strategies() {
+        Map<String, HashStrategy<? super E>> strategies = new LinkedHashMap<>();
+        strategies.put("identity", HashStrategy.identity());
+        strategies.put("murmur3", HashStrategy.murmur3());
+        return strategies;
+    }
+
+    private static <E extends Comparable<E>> void run(String keys, E[] values,
+                                                      Map<String, HashStrategy<? super E>> strategies) {
+        double modulo = timeIndex(values, values.length * 2,
+                (key, length) -> (key.hashCode() & Integer.MAX_VALUE) % length);
+        System.out.printf("%-18s %-9s %8s %6s %9.1f %9s %9s%n", keys, "modulo", "", "", modulo, "", "");
+        for (Map.Entry<String, HashStrategy<? super E>> strategy : strategies.entrySet()) {
+            measure(keys, strategy.getKey(), strategy.getValue(), values);
+        }
+    }
+
+    private static <E extends Comparable<E>> void measure(String keys, String name, HashStrategy<? super E> strategy,
+                                                          E[] values) {
+        int buckets = values.length * 2;
+        int[] counts = new int[buckets];
+        for (E value : values) {
+            counts[strategy.hash(value) & (buckets - 1)]++;
+        }
+        long walked = 0;
+        int max = 0;
+        for (int count : counts) {
+            walked += (long) count * (count + 1) / 2;
+            max = Math.max(max, count);
+        }
+        double index = timeIndex(values, buckets, (key, length) -> strategy.hash(key) & (length - 1));
+        double chain = timeContains(values, new ChainHashTable<E>(null, strategy));
+        //Открытая адресация на ключах с одинаковым хешем квадратична
+        String open = max > 64 ? "skipped" : String.format("%.1f",
+                timeContains(values, new OpenHashTable<E>(null, strategy)));
+        System.out.printf("%-18s %-9s %8.2f %6d %9.1f %9.1f %9s%n",
+                keys, name, (double) walked / values.length, max, index, chain, open);
+    }
+
+    private static <E> double timeIndex(E[] values, int buckets, Index<E> index) {
+        long best = Long.MAX_VALUE;
+        int sink = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (E value : values) {
+                sink += index.of(value, buckets);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return (double) best / values.length;
+    }
+
+    private static <E extends Comparable<E>> double timeContains(E[] values, ISet<E> set) {
+        for (E value : values) {
+            set.add(value);
+        }
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (E value : values) {
+                if (!set.contains(value)) {
+                    throw new IllegalStateException("lost key " + value);
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return (double) best / values.length;
+    }
+
+    private static Integer[] ints(int n, Function<Integer, Integer> key) {
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = key.apply(i);
+        }
+        return keys;
+    }
+
+    private static String[] letters(int n, Random rnd) {
+        String[] keys = new String[n];
+        for (int i = 0; i < n; i++) {
+            //Индекс в начале строки делает ключи различными, его цифры 0-9 заменяются на буквы q-z
+            StringBuilder sb = new StringBuilder(Integer.toString(i, 26));
+            for (int j = 0; j < sb.length(); j++) {
+                char c = sb.charAt(j);
+                if (c <= '9') {
+                    sb.setCharAt(j, (char) ('q' + c - '0'));
+                }
+            }
+            while (sb.length() < 10) {
+                sb.append((char) ('a' + rnd.nextInt(26)));
+            }
+            keys[i] = sb.toString();
+        }
+        return keys;
+    }
+
+    /**
+     * Strings of the blocks "Aa" and "BB", which have equal {@link String#hashCode()}
+     */
+    private static String[] colliding(int n) {
+        String[] keys = new String[n];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.setLength(0);
+            for (int bit = COLLIDING_BLOCKS - 1; bit >= 0; bit--) {
+                sb.append((i >>> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            keys[i] = sb.toString();
+        }
+        return keys;
+    }
+}
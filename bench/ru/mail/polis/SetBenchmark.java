@@ -0,0 +1,290 @@
+package ru.mail.polis;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Measures add / contains / remove / inorderTraverse of every set implementation
+ * on random, sorted and hash-colliding string keys.
+ * Reports the best time per operation and the bytes allocated per operation
+ * (the same figure as gc.alloc.rate.norm of JMH {@code -prof gc}).
+ * <p>
+ * Arguments are {@code key=v1,v2} pairs, all optional:
+ * {@code impl=AVLTree,ChainHashTable op=add,contains dist=random size=1000,1000000
+ * warmup=2 iterations=3 quadratic=10000}.
+ * Cases that are known to be quadratic (unbalanced tree on sorted keys, open addressing on colliding keys)
+ * are skipped for sizes above {@code quadratic}.
+ */
+public class SetBenchmark {
+
+    private static final Map<String, Supplier<ISet<String>>> IMPLEMENTATIONS = new LinkedHashMap<>();
+
+    static {
+        IMPLEMENTATIONS.put("BinarySearchTree", BinarySearchTree::new);
+        IMPLEMENTATIONS.put("AVLTree", AVLTree::new);
+        IMPLEMENTATIONS.put("RedBlackTree", RedBlackTree::new);
+        IMPLEMENTATIONS.put("PooledRedBlackTree", PooledRedBlackTree::new);
+        IMPLEMENTATIONS.put("BPlusTree", BPlusTree::new);
+        IMPLEMENTATIONS.put("LockFreeSkipList", LockFreeSkipList::new);
+        IMPLEMENTATIONS.put("ChainHashTable", ChainHashTable::new);
+        IMPLEMENTATIONS.put("OpenHashTable", OpenHashTable::new);
+        IMPLEMENTATIONS.put("OpenHashTable.packed", OpenHashTable::packed);
+        IMPLEMENTATIONS.put("SwissHashTable", SwissHashTable::new);
+    }
+
+    enum Operation {
+        ADD, CONTAINS, REMOVE, TRAVERSE
+    }
+
+    enum Distribution {
+
+        /**
+         * Distinct lowercase keys in random order
+         */
+        RANDOM {
+            @Override
+            String[] keys(int from, int to, Random rnd) {
+                String[] keys = new String[to - from];
+                for (int i = from; i < to; i++) {
+                    //Биекция по модулю 26^7 перемешивает индексы без повторов
+                    keys[i - from] = letters((i * 0x9E3779B1L + 12345) % LETTERS_RANGE, 7);
+                }
+                return keys;
+            }
+        },
+
+        /**
+         * Distinct lowercase keys in ascending order
+         */
+        SORTED {
+            @Override
+            String[] keys(int from, int to, Random rnd) {
+                String[] keys = new String[to - from];
+                for (int i = from; i < to; i++) {
+                    keys[i - from] = letters(i, 7);
+                }
+                return keys;
+            }
+        },
+
+        /**
+         * Keys with the same {@link String#hashCode()}, built of "Aa" and "BB" blocks, in random order
+         */
+        COLLIDING {
+            @Override
+            String[] keys(int from, int to, Random rnd) {
+                String[] keys = new String[to - from];
+                StringBuilder sb = new StringBuilder();
+                for (int i = from; i < to; i++) {
+                    sb.setLength(0);
+                    for (int bit = COLLIDING_BLOCKS - 1; bit >= 0; bit--) {
+                        sb.append((i >>> bit & 1) == 0 ? "Aa" : "BB");
+                    }
+                    keys[i - from] = sb.toString();
+                }
+                shuffle(keys, rnd);
+                return keys;
+            }
+        };
+
+        private static final long LETTERS_RANGE = 8_031_810_176L; //26^7
+        private static final int COLLIDING_BLOCKS = 25;
+
+        /**
+         * @return keys for the indices in [from, to), the same index always gives the same key
+         */
+        abstract String[] keys(int from, int to, Random rnd);
+
+        private static String letters(long x, int length) {
+            char[] chars = new char[length];
+            for (int i = length - 1; i >= 0; i--) {
+                chars[i] = (char) ('a' + x % 26);
+                x /= 26;
+            }
+            return new String(chars);
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    public static void main(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected key=value: " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        List<String> impls = list(options, "impl", String.join(",", IMPLEMENTATIONS.keySet()));
+        List<String> ops = list(options, "op", "add,contains,remove,traverse");
+        List<String> dists = list(options, "dist", "random,sorted,colliding");
+        List<String> sizes = list(options, "size", "1000,10000,100000,1000000,10000000");
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "3"));
+        int quadratic = Integer.parseInt(options.getOrDefault("quadratic", "10000"));
+
+        System.out.printf("%-20s %-9s %-10s %9s %12s %10s%n", "impl", "op", "dist", "size", "ns/op", "B/op");
+        for (String distName : dists) {
+            Distribution dist = Distribution.valueOf(distName.toUpperCase());
+            for (String sizeName : sizes) {
+                int size = Integer.parseInt(sizeName);
+                Random rnd = new Random(size);
+                String[] keys = dist.keys(0, size, rnd);
+                String[] missing = dist.keys(size, 2 * size, rnd);
+                for (String impl : impls) {
+                    Supplier<ISet<String>> factory = IMPLEMENTATIONS.get(impl);
+                    if (factory == null) {
+                        throw new IllegalArgumentException("unknown implementation: " + impl);
+                    }
+                    if (!supports(impl, dist)) {
+                        continue;
+                    }
+                    if (size > quadratic && isQuadratic(impl, dist)) {
+                        System.out.printf("%-20s %-9s %-10s %9d %12s%n", impl, "*", distName, size, "skipped");
+                        continue;
+                    }
+                    for (String opName : ops) {
+                        Operation op = Operation.valueOf(opName.toUpperCase());
+                        if (op == Operation.TRAVERSE && !(factory.get() instanceof ISortedSet)) {
+                            continue;
+                        }
+                        double[] result = run(factory, op, keys, missing, warmup, iterations);
+                        System.out.printf("%-20s %-9s %-10s %9d %12.1f %10.1f%n",
+                                impl, opName, distName, size, result[0], result[1]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return best nanoseconds per operation and allocated bytes per operation of that iteration
+     */
+    private static double[] run(Supplier<ISet<String>> factory, Operation op,
+                                String[] keys, String[] missing, int warmup, int iterations) {
+        double[] best = {Double.MAX_VALUE, Double.NaN};
+        String[] lookups = lookups(keys, missing);
+        for (int i = 0; i < warmup + iterations; i++) {
+            ISet<String> set = factory.get();
+            if (op != Operation.ADD) {
+                fill(set, keys);
+            }
+            System.gc();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            int ops = execute(set, op, keys, lookups);
+            long time = System.nanoTime() - start;
+            allocated = allocatedBytes() - allocated;
+            if (i >= warmup && (double) time / ops < best[0]) {
+                best[0] = (double) time / ops;
+                best[1] = (double) allocated / ops;
+            }
+        }
+        return best;
+    }
+
+    private static int execute(ISet<String> set, Operation op, String[] keys, String[] lookups) {
+        int hits = 0;
+        switch (op) {
+            case ADD:
+                for (String key : keys) {
+                    if (set.add(key)) {
+                        hits++;
+                    }
+                }
+                check(hits == keys.length, "add");
+                return keys.length;
+            case CONTAINS:
+                for (String key : lookups) {
+                    if (set.contains(key)) {
+                        hits++;
+                    }
+                }
+                check(hits == keys.length, "contains");
+                return lookups.length;
+            case REMOVE:
+                for (String key : keys) {
+                    if (set.remove(key)) {
+                        hits++;
+                    }
+                }
+                check(hits == keys.length, "remove");
+                return keys.length;
+            case TRAVERSE:
+                hits = ((ISortedSet<String>) set).inorderTraverse().size();
+                check(hits == keys.length, "traverse");
+                return keys.length;
+            default:
+                throw new IllegalArgumentException(op.name());
+        }
+    }
+
+    private static void fill(ISet<String> set, String[] keys) {
+        for (String key : keys) {
+            set.add(key);
+        }
+    }
+
+    /**
+     * Present and missing keys mixed half and half in random order
+     */
+    private static String[] lookups(String[] keys, String[] missing) {
+        String[] lookups = Arrays.copyOf(keys, keys.length + missing.length);
+        System.arraycopy(missing, 0, lookups, keys.length, missing.length);
+        shuffle(lookups, new Random(lookups.length));
+        return lookups;
+    }
+
+    private static void shuffle(String[] keys, Random rnd) {
+        for (int i = keys.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            String tmp = keys[i];
+            keys[i] = keys[j];
+            keys[j] = tmp;
+        }
+    }
+
+    private static boolean supports(String impl, Distribution dist) {
+        //Упакованная таблица принимает только строчные латинские буквы
+        return !(impl.endsWith(".packed") && dist == Distribution.COLLIDING);
+    }
+
+    private static boolean isQuadratic(String impl, Distribution dist) {
+        if (impl.equals("BinarySearchTree")) {
+            return dist == Distribution.SORTED;
+        }
+        return (impl.startsWith("OpenHashTable") || impl.equals("SwissHashTable")) && dist == Distribution.COLLIDING;
+    }
+
+    private static void check(boolean condition, String op) {
+        if (!condition) {
+            throw new IllegalStateException("wrong result of " + op);
+        }
+    }
+
+    private static List<String> list(Map<String, String> options, String key, String defaults) {
+        return Arrays.asList(options.getOrDefault(key, defaults).split(","));
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -1,19 +1,31 @@
 package ru.mail.polis;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
-//TODO: write code here
 public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
 
+    //Операции над множествами
+    private static final int UNION = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE = 2;
+    //Меньшие пары поддеревьев обрабатываются в одном потоке
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
     private Node root;
     private int size;
+    private int modCount;
     private final Comparator<E> comparator;
+    private final Metrics metrics = Metrics.create();
 
     class Node {
 
         E value;
         Node left, right, parent;
-        int balance;
+        int height = 1;
+        //Число узлов в поддереве, для rank и select
+        int count = 1;
 
         public Node(E value) {
             this.value = value;
@@ -22,7 +34,6 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         public Node(E value, Node parent) {
             this.value = value;
             this.parent = parent;
-            this.balance = 0;
         }
 
         @Override
@@ -48,6 +59,54 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         this.comparator = comparator;
     }
 
+    /**
+     * Builds a balanced tree from values in ascending order in linear time.
+     * Equal neighbours are added once.
+     * Heights and subtree sizes of the nodes are set on the way up.
+     * @throws IllegalArgumentException if the values are not sorted
+     */
+    public static <E extends Comparable<E>> AVLTree<E> fromSorted(Iterable<E> values) {
+        return fromSorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> AVLTree<E> fromSorted(Iterable<E> values,
+                                                                  Comparator<E> comparator) {
+        AVLTree<E> tree = new AVLTree<>(comparator);
+        tree.build(BulkLoad.distinctSorted(values, comparator));
+        return tree;
+    }
+
+    /**
+     * Sorts the values and builds a balanced tree from them, duplicates are added once
+     */
+    public static <E extends Comparable<E>> AVLTree<E> fromUnsorted(Collection<E> values) {
+        return fromUnsorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> AVLTree<E> fromUnsorted(Collection<E> values,
+                                                                    Comparator<E> comparator) {
+        AVLTree<E> tree = new AVLTree<>(comparator);
+        tree.build(BulkLoad.distinctUnsorted(values, comparator));
+        return tree;
+    }
+
+    private void build(List<E> values) {
+        root = build(values, 0, values.size(), null);
+        size = values.size();
+    }
+
+    private Node build(List<E> values, int from, int to, Node parent) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        Node node = new Node(values.get(mid), parent);
+        node.left = build(values, from, mid, node);
+        node.right = build(values, mid + 1, to, node);
+        update(node);
+        return node;
+    }
+
     @Override
     public E first() {
         if (isEmpty()) {
@@ -73,28 +132,188 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
     @Override
-    public List<E> inorderTraverse() {
-        List<E> list = new ArrayList<E>(size);
-        inorderTraverse(root, list);
-        return list;
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E floor(E value) {
+        return valueOf(lowerNode(value, true));
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return valueOf(higherNode(value, true));
+    }
+
+    @Override
+    public E lower(E value) {
+        return valueOf(lowerNode(value, false));
+    }
+
+    @Override
+    public E higher(E value) {
+        return valueOf(higherNode(value, false));
+    }
+
+    /**
+     * @return the greatest node less than (or equal to, if inclusive) the value
+     */
+    private Node lowerNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node result = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp < 0 || inclusive && cmp == 0) {
+                result = curr;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return result;
     }
 
-    private void inorderTraverse(Node curr, List<E> list) {
-        if (curr == null) {
-            return;
+    /**
+     * @return the least node greater than (or equal to, if inclusive) the value
+     */
+    private Node higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node result = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp > 0 || inclusive && cmp == 0) {
+                result = curr;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
         }
-        inorderTraverse(curr.left, list);
-        list.add(curr.value);
-        System.out.println(height(curr));
-        inorderTraverse(curr.right, list);
+        return result;
+    }
+
+    private E valueOf(Node node) {
+        return node == null ? null : node.value;
     }
 
+    /**
+     * Works in O(log n) using subtree sizes
+     */
     @Override
-    public int size() {
-        if (size > 0) {
-            return size;
+    public int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int rank = 0;
+        Node curr = root;
+        while (curr != null) {
+            if (compare(curr.value, value) < 0) {
+                //Весь левый сын и сам узел меньше значения
+                rank += count(curr.left) + 1;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Works in O(log n) using subtree sizes
+     */
+    @Override
+    public E select(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        Node curr = root;
+        while (true) {
+            int left = count(curr.left);
+            if (index < left) {
+                curr = curr.left;
+            } else if (index == left) {
+                return curr.value;
+            } else {
+                index -= left + 1;
+                curr = curr.right;
+            }
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Node first = root;
+        if (first != null) {
+            while (first.left != null) {
+                first = first.left;
+            }
+        }
+        return new InorderIterator(first);
+    }
+
+    @Override
+    public Iterator<E> iterator(E from) {
+        return new InorderIterator(higherNode(from, true));
+    }
+
+    /**
+     * Walks the tree through parent links, so it needs no stack and
+     * allocates nothing per element
+     */
+    private class InorderIterator implements Iterator<E> {
+
+        private Node next;
+        private final int expectedModCount = modCount;
+
+        InorderIterator(Node first) {
+            next = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Node curr = next;
+            next = successor(curr);
+            return curr.value;
+        }
+    }
+
+    private Node successor(Node node) {
+        if (node.right != null) {
+            node = node.right;
+            while (node.left != null) {
+                node = node.left;
+            }
+            return node;
+        }
+        //Поднимаемся, пока приходим из правого поддерева
+        Node parent = node.parent;
+        while (parent != null && parent.right == node) {
+            node = parent;
+            parent = parent.parent;
         }
-        return Integer.MAX_VALUE;
+        return parent;
+    }
+
+    @Override
+    public int size() {
+        return size;
     }
 
     @Override
@@ -109,9 +328,14 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         }
         if (root != null) {
             Node curr = root;
+            int depth = 0;
             while (curr != null) {
+                depth++;
                 int cmp = compare(curr.value, value);
                 if (cmp == 0) {
+                    if (Metrics.ENABLED) {
+                        metrics.probed(depth);
+                    }
                     return true;
                 } else if (cmp < 0) {
                     curr = curr.right;
@@ -119,6 +343,9 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
                     curr = curr.left;
                 }
             }
+            if (Metrics.ENABLED) {
+                metrics.probed(depth);
+            }
         }
         return false;
     }
@@ -131,66 +358,82 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         }
         if (root == null) {
             root = new Node(value);
-
         } else {
             Node curr = root;
             Node parent;
-            while (true){
-                if (curr.value == value)
+            int depth = 0;
+            while (true) {
+                depth++;
+                int cmp = compare(curr.value, value);
+                if (cmp == 0) {
+                    if (Metrics.ENABLED) {
+                        metrics.probed(depth);
+                    }
                     return false;
+                }
 
                 parent = curr;
 
-                boolean toLeft = compare(curr.value, value) > 0;
+                boolean toLeft = cmp > 0;
                 curr = toLeft ? curr.left : curr.right;
 
-                if (curr == null){
-                    if (toLeft){
+                if (curr == null) {
+                    if (toLeft) {
                         parent.left = new Node(value, parent);
                     } else {
                         parent.right = new Node(value, parent);
                     }
+                    if (Metrics.ENABLED) {
+                        metrics.probed(depth);
+                    }
                     rebalance(parent);
                     break;
                 }
             }
         }
         size++;
+        modCount++;
         return true;
     }
 
     /**
-     * Balance the tree starting from the given node
+     * Balance the tree going up from the given node to the root.
+     * Stops rotating as soon as the height of a subtree is the same as before the update,
+     * because no balance above it can change then; only subtree sizes are fixed up to the root.
      * @param node node, which we want to rebalance
      */
-    private void rebalance(Node node){
-        setBalance(node);
-        //Перевешено влево...
-        if (node.balance == -2){
-            //...а левый сын влево
-            if (height(node.left.left) >= height(node.left.right))
+    private void rebalance(Node node) {
+        while (node != null) {
+            int oldHeight = node.height;
+            update(node);
+            //Перевешено влево...
+            if (balance(node) == -2) {
+                //...а левый сын вправо
+                if (balance(node.left) > 0) {
+                    rotateLeft(node.left);
+                }
                 node = rotateRight(node);
-            else
-            //.. а левый сын вправо
-                node = rotateLeftThenRight(node);
-            //Перевешено вправо...
-        } else if (node.balance == 2) {
-            //...а правый сын вправо
-            if (height(node.right.right) >= height(node.right.left))
-                node = rotateLeft(node);
-            else
+                //Перевешено вправо...
+            } else if (balance(node) == 2) {
                 //...а правый сын влево
-                node = rotateRightThenLeft(node);
-        }
-
-        if (node.parent != null){
-            rebalance(node.parent);
-        } else {
-            root = node;
+                if (balance(node.right) < 0) {
+                    rotateRight(node.right);
+                }
+                node = rotateLeft(node);
+            }
+            //Высота поддерева не изменилась - выше поменяются только размеры поддеревьев
+            if (node.height == oldHeight) {
+                for (node = node.parent; node != null; node = node.parent) {
+                    node.count = 1 + count(node.left) + count(node.right);
+                }
+                return;
+            }
+            node = node.parent;
         }
     }
+
     //Малый поворот влево
-    private Node rotateLeft(Node x){
+    private Node rotateLeft(Node x) {
         Node y = x.right;
         y.parent = x.parent;
         //Перекинем ветку
@@ -202,15 +445,13 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         y.left = x;
         x.parent = y;
         //Подкорректируем указатель у родителя на сына
-        if (y.parent != null) {
-            if (y.parent.right == x) {
-                y.parent.right = y;
-            } else {
-                y.parent.left = y;
-            }
-        }
+        replaceChild(y.parent, x, y);
 
-        setBalance(x, y);
+        update(x);
+        update(y);
+        if (Metrics.ENABLED) {
+            metrics.rotated();
+        }
 
         return y;
     }
@@ -227,88 +468,386 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         y.right = x;
         x.parent = y;
 
-        if (y.parent != null) {
-            if (y.parent.right == x) {
-                y.parent.right = y;
-            } else {
-                y.parent.left = y;
-            }
-        }
+        replaceChild(y.parent, x, y);
 
-        setBalance(x, y);
+        update(x);
+        update(y);
+        if (Metrics.ENABLED) {
+            metrics.rotated();
+        }
 
         return y;
     }
 
-    private Node rotateLeftThenRight(Node node) {
-        node.left = rotateLeft(node.left);
-        return rotateRight(node);
+    private void replaceChild(Node parent, Node oldChild, Node newChild) {
+        if (parent == null) {
+            root = newChild;
+        } else if (parent.left == oldChild) {
+            parent.left = newChild;
+        } else {
+            parent.right = newChild;
+        }
     }
 
-    private Node rotateRightThenLeft(Node node) {
-        node.right = rotateRight(node.right);
-        return rotateLeft(node);
+    private void update(Node node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.count = 1 + count(node.left) + count(node.right);
     }
 
-    private void setBalance(Node... nodes){
-        for (Node node : nodes){
-            node.balance = height(node.right) - height(node.left);
-        }
+    private int balance(Node node) {
+        return height(node.right) - height(node.left);
     }
 
-    private int height(Node node){
-        if (node == null)
-            return -1;
-        return 1 + Math.max(height(node.left), height(node.right));
+    private int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private int count(Node node) {
+        return node == null ? 0 : node.count;
     }
 
     @Override
     public boolean remove(E value) {
         if (value == null)
             throw new NullPointerException("value is null");
-        if (root == null)
-            return false;
 
-        Node node = root;
-        Node parent = root;
-        Node deletedNode = null;
-        Node child = root;
         //Найдем значение как обычно
-        while (child != null){
-            parent = node;
-            node = child;
-            child = compare(value, node.value) >= 0 ? node.right : node.left;
-            if (value == node.value){
-                deletedNode = node;
+        Node node = root;
+        while (node != null) {
+            int cmp = compare(node.value, value);
+            if (cmp == 0) {
+                break;
             }
+            node = cmp > 0 ? node.left : node.right;
         }
-        //Если нашли
-        if (deletedNode != null) {
-            deletedNode.value = node.value;
-
-            child = node.left != null ? node.left : node.right;
-
-            //Если корень удаляем
-            if (root.value == value) {
-                root = child;
-            } else {
-                if (parent.left == node) {
-                    parent.left = child;
-                } else {
-                    parent.right = child;
-                }
-                rebalance(parent);
+        if (node == null) {
+            return false;
+        }
+        //Два сына - заменим значение наименьшим из больших и удалим его узел
+        if (node.left != null && node.right != null) {
+            Node next = node.right;
+            while (next.left != null) {
+                next = next.left;
             }
-            size--;
-            return true;
+            node.value = next.value;
+            node = next;
         }
-        return false;
+
+        Node child = node.left != null ? node.left : node.right;
+        Node parent = node.parent;
+        if (child != null) {
+            child.parent = parent;
+        }
+        replaceChild(parent, node, child);
+        node.value = null;
+        node.left = node.right = node.parent = null;
+
+        rebalance(parent);
+        size--;
+        modCount++;
+        return true;
     }
 
     private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
+    /**
+     * Looks up the whole batch in one walk of the tree, see {@link Batch#containsAll}
+     */
+    @Override
+    public BitSet containsAll(List<E> values) {
+        return Batch.containsAll(values, comparator, root, new Batch.Tree<Node, E>() {
+            @Override
+            public Node left(Node node) {
+                return node.left;
+            }
+
+            @Override
+            public Node right(Node node) {
+                return node.right;
+            }
+
+            @Override
+            public E value(Node node) {
+                return node.value;
+            }
+        }, this::compare);
+    }
+
+    /**
+     * Adds all elements of the other tree to this one, the other tree is not changed.
+     * This tree is split by the keys of the other one and joined back around them,
+     * so for m elements in the smaller tree and n in the larger one the work is O(m log(n / m + 1)),
+     * plus copying the nodes that only the other tree has.
+     * The other tree must not be changed meanwhile.
+     *
+     * @return true if this tree changed
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     */
+    public boolean union(AVLTree<E> other) {
+        return combine(UNION, other, null);
+    }
+
+    /**
+     * Same as {@link #union(AVLTree)}, independent halves are processed by the tasks of the pool
+     */
+    public boolean union(AVLTree<E> other, ForkJoinPool pool) {
+        return combine(UNION, other, pool);
+    }
+
+    /**
+     * Keeps only the elements of this tree that the other tree contains, the other tree is not changed.
+     * The work is O(m log(n / m + 1)) as for {@link #union(AVLTree)}.
+     *
+     * @return true if this tree changed
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     */
+    public boolean intersection(AVLTree<E> other) {
+        return combine(INTERSECTION, other, null);
+    }
+
+    public boolean intersection(AVLTree<E> other, ForkJoinPool pool) {
+        return combine(INTERSECTION, other, pool);
+    }
+
+    /**
+     * Removes from this tree all elements of the other tree, the other tree is not changed.
+     * The work is O(m log(n / m + 1)) as for {@link #union(AVLTree)}.
+     *
+     * @return true if this tree changed
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     */
+    public boolean difference(AVLTree<E> other) {
+        return combine(DIFFERENCE, other, null);
+    }
+
+    public boolean difference(AVLTree<E> other, ForkJoinPool pool) {
+        return combine(DIFFERENCE, other, pool);
+    }
+
+    private boolean combine(int op, AVLTree<E> other, ForkJoinPool pool) {
+        if (!Objects.equals(comparator, other.comparator)) {
+            throw new IllegalArgumentException("trees are ordered by different comparators");
+        }
+        int oldSize = size;
+        if (other == this) {
+            //Дерево нельзя одновременно резать и читать
+            if (op == DIFFERENCE) {
+                root = null;
+            }
+        } else {
+            root = pool == null ? combine(op, root, other.root, false) : pool.invoke(new Combine(op, root, other.root));
+            if (root != null) {
+                root.parent = null;
+            }
+        }
+        size = count(root);
+        modCount++;
+        //Все три операции только добавляют или только удаляют
+        return size != oldSize;
+    }
+
+    /**
+     * Splits the subtree of this tree by the root of the subtree of the other tree
+     * and combines the parts with the subtrees of that root recursively
+     *
+     * @return combined subtree, its root may keep a stale parent link
+     */
+    private Node combine(int op, Node node, Node other, boolean parallel) {
+        if (node == null) {
+            return op == UNION ? copy(other) : null;
+        }
+        if (other == null) {
+            return op == INTERSECTION ? null : node;
+        }
+        boolean fork = parallel && node.count + other.count > PARALLEL_THRESHOLD;
+        Split split = split(node, other.value);
+        Node left;
+        Node right;
+        if (fork) {
+            Combine task = new Combine(op, split.left, other.left);
+            task.fork();
+            right = combine(op, split.right, other.right, true);
+            left = task.join();
+        } else {
+            left = combine(op, split.left, other.left, parallel);
+            right = combine(op, split.right, other.right, parallel);
+        }
+        if (op == UNION) {
+            return join(left, split.middle != null ? split.middle : new Node(other.value), right);
+        }
+        if (op == INTERSECTION && split.middle != null) {
+            return join(left, split.middle, right);
+        }
+        return join(left, right);
+    }
+
+    //Задача живёт только в пуле потоков и не сериализуется
+    @SuppressWarnings("serial")
+    private class Combine extends RecursiveTask<Node> {
+
+        private final int op;
+        private final Node node;
+        private final Node other;
+
+        Combine(int op, Node node, Node other) {
+            this.op = op;
+            this.node = node;
+            this.other = other;
+        }
+
+        @Override
+        protected Node compute() {
+            return combine(op, node, other, true);
+        }
+    }
+
+    /**
+     * Parts of a subtree: less than the key, the node with the key if any, greater than the key
+     */
+    private class Split {
+        Node left, middle, right;
+    }
+
+    private Split split(Node node, E value) {
+        if (node == null) {
+            return new Split();
+        }
+        int cmp = compare(value, node.value);
+        if (cmp == 0) {
+            Split split = new Split();
+            split.left = node.left;
+            split.middle = node;
+            split.right = node.right;
+            return split;
+        }
+        Split split;
+        if (cmp < 0) {
+            split = split(node.left, value);
+            split.right = join(split.right, node, node.right);
+        } else {
+            split = split(node.right, value);
+            split.left = join(node.left, node, split.left);
+        }
+        return split;
+    }
+
+    /**
+     * Joins two subtrees and a node between them, going down the spine of the higher subtree
+     * to a subtree of about the height of the lower one, so the work is O(difference of heights)
+     */
+    private Node join(Node left, Node node, Node right) {
+        if (height(left) > height(right) + 1) {
+            return joinRight(left, node, right);
+        }
+        if (height(right) > height(left) + 1) {
+            return joinLeft(left, node, right);
+        }
+        return attach(node, left, right);
+    }
+
+    private Node joinRight(Node left, Node node, Node right) {
+        Node inner = left.right;
+        if (height(inner) <= height(right) + 1) {
+            Node joined = attach(node, inner, right);
+            if (height(joined) <= height(left.left) + 1) {
+                return attach(left, left.left, joined);
+            }
+            //Большой поворот
+            return rotateLeftDetached(attach(left, left.left, rotateRightDetached(joined)));
+        }
+        Node joined = joinRight(inner, node, right);
+        attach(left, left.left, joined);
+        return height(joined) <= height(left.left) + 1 ? left : rotateLeftDetached(left);
+    }
+
+    private Node joinLeft(Node left, Node node, Node right) {
+        Node inner = right.left;
+        if (height(inner) <= height(left) + 1) {
+            Node joined = attach(node, left, inner);
+            if (height(joined) <= height(right.right) + 1) {
+                return attach(right, joined, right.right);
+            }
+            return rotateRightDetached(attach(right, rotateLeftDetached(joined), right.right));
+        }
+        Node joined = joinLeft(left, node, inner);
+        attach(right, joined, right.right);
+        return height(joined) <= height(right.right) + 1 ? right : rotateRightDetached(right);
+    }
+
+    /**
+     * Joins two subtrees, the largest node of the left one goes between them
+     */
+    private Node join(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        Split split = splitLast(left);
+        return join(split.left, split.middle, right);
+    }
+
+    private Split splitLast(Node node) {
+        if (node.right == null) {
+            Split split = new Split();
+            split.left = node.left;
+            split.middle = node;
+            return split;
+        }
+        Split split = splitLast(node.right);
+        split.left = join(node.left, node, split.left);
+        return split;
+    }
+
+    private Node attach(Node node, Node left, Node right) {
+        node.left = left;
+        node.right = right;
+        if (left != null) {
+            left.parent = node;
+        }
+        if (right != null) {
+            right.parent = node;
+        }
+        update(node);
+        return node;
+    }
+
+    //Повороты поддеревьев, которые еще не подвешены к родителю
+    private Node rotateLeftDetached(Node x) {
+        Node y = x.right;
+        attach(x, x.left, y.left);
+        if (Metrics.ENABLED) {
+            metrics.rotated();
+        }
+        return attach(y, x, y.right);
+    }
+
+    private Node rotateRightDetached(Node x) {
+        Node y = x.left;
+        attach(x, y.right, x.right);
+        if (Metrics.ENABLED) {
+            metrics.rotated();
+        }
+        return attach(y, y.left, x);
+    }
+
+    private Node copy(Node other) {
+        if (other == null) {
+            return null;
+        }
+        Node node = new Node(other.value);
+        attach(node, copy(other.left), copy(other.right));
+        return node;
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, height(root));
+    }
+
     public String toString() {
         return "BST{" + root + "}";
     }
@@ -0,0 +1,713 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * In-memory B+-tree.
+ * <p>
+ * A node keeps up to {@link #MAX_KEYS} keys in one contiguous array (a few cache lines of references)
+ * and is searched by binary search, so a lookup touches O(log n / log {@link #MAX_KEYS}) nodes
+ * instead of one node per comparison as in binary trees, and the tree holds one array per
+ * {@link #MAX_KEYS} keys instead of an object per key.
+ * Elements are stored in the leaves only; leaves are linked both ways,
+ * so iteration and range scans read the leaf arrays one after another.
+ * Inner nodes keep the sizes of their subtrees, so rank and select work in O(log n).
+ * <p>
+ * Every node except the root is at least half full.
+ */
+public class BPlusTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    static final int MAX_KEYS = 64;
+    private static final int MIN_KEYS = MAX_KEYS / 2;
+
+    static final class Node {
+        //Лишняя ячейка - для переполнения перед разбиением
+        final Object[] keys = new Object[MAX_KEYS + 1];
+        //У листьев null; keys[i] внутреннего узла - наименьший ключ поддерева children[i + 1]
+        final Node[] children;
+        //Размеры поддеревьев детей
+        final int[] counts;
+        //Число ключей
+        int size;
+        //Соседние листья
+        Node prev;
+        Node next;
+
+        Node(boolean leaf) {
+            this.children = leaf ? null : new Node[MAX_KEYS + 2];
+            this.counts = leaf ? null : new int[MAX_KEYS + 2];
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        /**
+         * @return number of keys in the subtree
+         */
+        int count() {
+            if (isLeaf()) {
+                return size;
+            }
+            int count = 0;
+            for (int i = 0; i <= size; i++) {
+                count += counts[i];
+            }
+            return count;
+        }
+    }
+
+    private Node root = new Node(true);
+    private int size;
+    private int modCount;
+    private final Comparator<E> comparator;
+    private final Metrics metrics = Metrics.create();
+
+    public BPlusTree() {
+        this(null);
+    }
+
+    public BPlusTree(Comparator<E> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Builds the tree from values in ascending order in linear time, level by level from the leaves.
+     * Equal neighbours are added once.
+     * @throws IllegalArgumentException if the values are not sorted
+     */
+    public static <E extends Comparable<E>> BPlusTree<E> fromSorted(Iterable<E> values) {
+        return fromSorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> BPlusTree<E> fromSorted(Iterable<E> values,
+                                                                    Comparator<E> comparator) {
+        BPlusTree<E> tree = new BPlusTree<>(comparator);
+        tree.build(BulkLoad.distinctSorted(values, comparator));
+        return tree;
+    }
+
+    /**
+     * Sorts the values and builds the tree from them, duplicates are added once
+     */
+    public static <E extends Comparable<E>> BPlusTree<E> fromUnsorted(Collection<E> values) {
+        return fromUnsorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> BPlusTree<E> fromUnsorted(Collection<E> values,
+                                                                      Comparator<E> comparator) {
+        BPlusTree<E> tree = new BPlusTree<>(comparator);
+        tree.build(BulkLoad.distinctUnsorted(values, comparator));
+        return tree;
+    }
+
+    /**
+     * Spreads the values evenly over the fewest full leaves, then does the same with every level above,
+     * so each node is at least half full
+     */
+    private void build(List<E> values) {
+        size = values.size();
+        if (size == 0) {
+            return;
+        }
+        int leaves = (size + MAX_KEYS - 1) / MAX_KEYS;
+        List<Node> level = new ArrayList<>(leaves);
+        //Наименьший ключ каждого узла уровня - разделитель для уровня выше
+        List<Object> mins = new ArrayList<>(leaves);
+        int from = 0;
+        for (int i = 0; i < leaves; i++) {
+            int to = (int) ((long) size * (i + 1) / leaves);
+            Node leaf = new Node(true);
+            for (int j = from; j < to; j++) {
+                leaf.keys[j - from] = values.get(j);
+            }
+            leaf.size = to - from;
+            if (!level.isEmpty()) {
+                Node prev = level.get(level.size() - 1);
+                prev.next = leaf;
+                leaf.prev = prev;
+            }
+            level.add(leaf);
+            mins.add(leaf.keys[0]);
+            from = to;
+        }
+        while (level.size() > 1) {
+            int groups = (level.size() + MAX_KEYS) / (MAX_KEYS + 1);
+            List<Node> upper = new ArrayList<>(groups);
+            List<Object> upperMins = new ArrayList<>(groups);
+            from = 0;
+            for (int i = 0; i < groups; i++) {
+                int to = (int) ((long) level.size() * (i + 1) / groups);
+                Node node = new Node(false);
+                for (int j = from; j < to; j++) {
+                    node.children[j - from] = level.get(j);
+                    node.counts[j - from] = level.get(j).count();
+                    if (j > from) {
+                        node.keys[j - from - 1] = mins.get(j);
+                    }
+                }
+                node.size = to - from - 1;
+                upper.add(node);
+                upperMins.add(mins.get(from));
+                from = to;
+            }
+            level = upper;
+            mins = upperMins;
+        }
+        root = level.get(0);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node leaf = findLeaf(value);
+        return search(leaf, value) >= 0;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (!insert(root, value)) {
+            return false;
+        }
+        size++;
+        modCount++;
+        if (root.size > MAX_KEYS) {
+            //Корень разбился - дерево растёт вверх
+            Node newRoot = new Node(false);
+            newRoot.children[0] = root;
+            newRoot.counts[0] = size;
+            root = newRoot;
+            splitChild(newRoot, 0);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (!delete(root, value)) {
+            return false;
+        }
+        size--;
+        modCount++;
+        if (!root.isLeaf() && root.size == 0) {
+            //У корня остался один сын - дерево становится ниже
+            root = root.children[0];
+        }
+        return true;
+    }
+
+    /**
+     * Inserts the value into the subtree; an overfull child is split here, an overfull node by its parent
+     *
+     * @return true if the value was not in the subtree
+     */
+    private boolean insert(Node node, E value) {
+        if (node.isLeaf()) {
+            int pos = search(node, value);
+            if (pos >= 0) {
+                return false;
+            }
+            insertKey(node, -pos - 1, value);
+            return true;
+        }
+        int i = childIndex(node, value);
+        Node child = node.children[i];
+        if (!insert(child, value)) {
+            return false;
+        }
+        node.counts[i]++;
+        if (child.size > MAX_KEYS) {
+            splitChild(node, i);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the upper half of the overfull child into a new right sibling
+     */
+    private void splitChild(Node parent, int i) {
+        Node child = parent.children[i];
+        int half = child.size / 2;
+        Node right = new Node(child.isLeaf());
+        Object separator;
+        if (child.isLeaf()) {
+            right.size = child.size - half;
+            System.arraycopy(child.keys, half, right.keys, 0, right.size);
+            separator = right.keys[0];
+            right.next = child.next;
+            if (right.next != null) {
+                right.next.prev = right;
+            }
+            right.prev = child;
+            child.next = right;
+        } else {
+            //Средний ключ уходит в родителя
+            separator = child.keys[half];
+            right.size = child.size - half - 1;
+            System.arraycopy(child.keys, half + 1, right.keys, 0, right.size);
+            System.arraycopy(child.children, half + 1, right.children, 0, right.size + 1);
+            System.arraycopy(child.counts, half + 1, right.counts, 0, right.size + 1);
+            for (int j = half + 1; j <= child.size; j++) {
+                child.children[j] = null;
+            }
+        }
+        for (int j = half; j < child.size; j++) {
+            child.keys[j] = null;
+        }
+        child.size = half;
+        int rightCount = right.count();
+        System.arraycopy(parent.keys, i, parent.keys, i + 1, parent.size - i);
+        System.arraycopy(parent.children, i + 1, parent.children, i + 2, parent.size - i);
+        System.arraycopy(parent.counts, i + 1, parent.counts, i + 2, parent.size - i);
+        parent.keys[i] = separator;
+        parent.children[i + 1] = right;
+        parent.counts[i + 1] = rightCount;
+        parent.counts[i] -= rightCount;
+        parent.size++;
+    }
+
+    /**
+     * Removes the value from the subtree; an underfull child is fixed here, an underfull node by its parent
+     *
+     * @return true if the value was in the subtree
+     */
+    private boolean delete(Node node, E value) {
+        if (node.isLeaf()) {
+            int pos = search(node, value);
+            if (pos < 0) {
+                return false;
+            }
+            removeKey(node, pos);
+            return true;
+        }
+        int i = childIndex(node, value);
+        Node child = node.children[i];
+        if (!delete(child, value)) {
+            return false;
+        }
+        node.counts[i]--;
+        if (child.size < MIN_KEYS) {
+            fixUnderflow(node, i);
+        }
+        return true;
+    }
+
+    /**
+     * Borrows a key from a sibling that has more than enough, otherwise merges the child with a sibling
+     */
+    private void fixUnderflow(Node parent, int i) {
+        if (i > 0 && parent.children[i - 1].size > MIN_KEYS) {
+            borrowFromLeft(parent, i);
+        } else if (i < parent.size && parent.children[i + 1].size > MIN_KEYS) {
+            borrowFromRight(parent, i);
+        } else if (i > 0) {
+            merge(parent, i - 1);
+        } else {
+            merge(parent, i);
+        }
+    }
+
+    private void borrowFromLeft(Node parent, int i) {
+        Node left = parent.children[i - 1];
+        Node child = parent.children[i];
+        int moved;
+        if (child.isLeaf()) {
+            Object key = left.keys[left.size - 1];
+            removeKey(left, left.size - 1);
+            insertKey(child, 0, key);
+            parent.keys[i - 1] = key;
+            moved = 1;
+        } else {
+            //Разделитель спускается в сына, последний ключ левого брата поднимается на его место
+            System.arraycopy(child.keys, 0, child.keys, 1, child.size);
+            System.arraycopy(child.children, 0, child.children, 1, child.size + 1);
+            System.arraycopy(child.counts, 0, child.counts, 1, child.size + 1);
+            child.keys[0] = parent.keys[i - 1];
+            child.children[0] = left.children[left.size];
+            child.counts[0] = left.counts[left.size];
+            child.size++;
+            parent.keys[i - 1] = left.keys[left.size - 1];
+            moved = left.counts[left.size];
+            left.keys[left.size - 1] = null;
+            left.children[left.size] = null;
+            left.size--;
+        }
+        parent.counts[i - 1] -= moved;
+        parent.counts[i] += moved;
+    }
+
+    private void borrowFromRight(Node parent, int i) {
+        Node child = parent.children[i];
+        Node right = parent.children[i + 1];
+        int moved;
+        if (child.isLeaf()) {
+            insertKey(child, child.size, right.keys[0]);
+            removeKey(right, 0);
+            parent.keys[i] = right.keys[0];
+            moved = 1;
+        } else {
+            child.keys[child.size] = parent.keys[i];
+            child.children[child.size + 1] = right.children[0];
+            child.counts[child.size + 1] = right.counts[0];
+            child.size++;
+            parent.keys[i] = right.keys[0];
+            moved = right.counts[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+            System.arraycopy(right.children, 1, right.children, 0, right.size);
+            System.arraycopy(right.counts, 1, right.counts, 0, right.size);
+            right.keys[right.size - 1] = null;
+            right.children[right.size] = null;
+            right.size--;
+        }
+        parent.counts[i] += moved;
+        parent.counts[i + 1] -= moved;
+    }
+
+    /**
+     * Appends the child {@code i + 1} to the child {@code i} and removes it from the parent
+     */
+    private void merge(Node parent, int i) {
+        Node left = parent.children[i];
+        Node right = parent.children[i + 1];
+        if (left.isLeaf()) {
+            System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+            left.size += right.size;
+            left.next = right.next;
+            if (left.next != null) {
+                left.next.prev = left;
+            }
+        } else {
+            left.keys[left.size] = parent.keys[i];
+            System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+            System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+            System.arraycopy(right.counts, 0, left.counts, left.size + 1, right.size + 1);
+            left.size += right.size + 1;
+        }
+        parent.counts[i] += parent.counts[i + 1];
+        System.arraycopy(parent.keys, i + 1, parent.keys, i, parent.size - i - 1);
+        System.arraycopy(parent.children, i + 2, parent.children, i + 1, parent.size - i - 1);
+        System.arraycopy(parent.counts, i + 2, parent.counts, i + 1, parent.size - i - 1);
+        parent.keys[parent.size - 1] = null;
+        parent.children[parent.size] = null;
+        parent.size--;
+    }
+
+    private static void insertKey(Node leaf, int pos, Object key) {
+        System.arraycopy(leaf.keys, pos, leaf.keys, pos + 1, leaf.size - pos);
+        leaf.keys[pos] = key;
+        leaf.size++;
+    }
+
+    private static void removeKey(Node leaf, int pos) {
+        System.arraycopy(leaf.keys, pos + 1, leaf.keys, pos, leaf.size - pos - 1);
+        leaf.keys[--leaf.size] = null;
+    }
+
+    /**
+     * Looks up the sorted batch leaf by leaf: a key that falls into the current leaf or the next one
+     * is searched there without descending from the root
+     */
+    @Override
+    public BitSet containsAll(List<E> values) {
+        int[] order = Batch.sortedOrder(values, comparator);
+        BitSet result = new BitSet(values.size());
+        Node leaf = null;
+        for (int i : order) {
+            E value = values.get(i);
+            if (leaf == null || !covers(leaf, value)) {
+                leaf = leaf != null && leaf.next != null && covers(leaf.next, value) ? leaf.next : findLeaf(value);
+            }
+            if (search(leaf, value) >= 0) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the value can only be in this leaf: it is between its first key and the first key of the next one
+     */
+    private boolean covers(Node leaf, E value) {
+        return leaf.size > 0 && compare(key(leaf, 0), value) <= 0
+                && (leaf.next == null || compare(key(leaf.next, 0), value) > 0);
+    }
+
+    /**
+     * @return the leaf where the value is or would be inserted
+     */
+    private Node findLeaf(E value) {
+        Node node = root;
+        while (!node.isLeaf()) {
+            node = node.children[childIndex(node, value)];
+        }
+        return node;
+    }
+
+    /**
+     * Equal to a separator goes to the right: the separator is the least key of the right subtree
+     */
+    private int childIndex(Node node, E value) {
+        int pos = search(node, value);
+        return pos >= 0 ? pos + 1 : -pos - 1;
+    }
+
+    /**
+     * Binary search over the keys of the node
+     *
+     * @return index of the value, or {@code -(insertion point) - 1} as in {@link java.util.Arrays#binarySearch}
+     */
+    private int search(Node node, E value) {
+        int low = 0;
+        int high = node.size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(key(node, mid), value);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E key(Node node, int i) {
+        return (E) node.keys[i];
+    }
+
+    @Override
+    public E first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        Node node = root;
+        while (!node.isLeaf()) {
+            node = node.children[0];
+        }
+        return key(node, 0);
+    }
+
+    @Override
+    public E last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        Node node = root;
+        while (!node.isLeaf()) {
+            node = node.children[node.size];
+        }
+        return key(node, node.size - 1);
+    }
+
+    @Override
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E floor(E value) {
+        return lowerValue(value, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return higherValue(value, true);
+    }
+
+    @Override
+    public E lower(E value) {
+        return lowerValue(value, false);
+    }
+
+    @Override
+    public E higher(E value) {
+        return higherValue(value, false);
+    }
+
+    /**
+     * @return the greatest element less than (or equal to, if inclusive) the value, null if there is none
+     */
+    private E lowerValue(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node leaf = findLeaf(value);
+        int pos = search(leaf, value);
+        int idx = pos >= 0 ? (inclusive ? pos : pos - 1) : -pos - 2;
+        if (idx >= 0) {
+            return key(leaf, idx);
+        }
+        //Все ключи листа больше - ответ в конце предыдущего
+        return leaf.prev == null ? null : key(leaf.prev, leaf.prev.size - 1);
+    }
+
+    /**
+     * @return the least element greater than (or equal to, if inclusive) the value, null if there is none
+     */
+    private E higherValue(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node leaf = findLeaf(value);
+        int pos = search(leaf, value);
+        int idx = pos >= 0 ? (inclusive ? pos : pos + 1) : -pos - 1;
+        if (idx < leaf.size) {
+            return key(leaf, idx);
+        }
+        return leaf.next == null ? null : key(leaf.next, 0);
+    }
+
+    /**
+     * Works in O(log n) using subtree sizes
+     */
+    @Override
+    public int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int rank = 0;
+        Node node = root;
+        while (!node.isLeaf()) {
+            int i = childIndex(node, value);
+            //Поддеревья левее целиком меньше значения
+            for (int j = 0; j < i; j++) {
+                rank += node.counts[j];
+            }
+            node = node.children[i];
+        }
+        int pos = search(node, value);
+        return rank + (pos >= 0 ? pos : -pos - 1);
+    }
+
+    /**
+     * Works in O(log n) using subtree sizes
+     */
+    @Override
+    public E select(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        Node node = root;
+        while (!node.isLeaf()) {
+            int i = 0;
+            while (index >= node.counts[i]) {
+                index -= node.counts[i];
+                i++;
+            }
+            node = node.children[i];
+        }
+        return key(node, index);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Node node = root;
+        while (!node.isLeaf()) {
+            node = node.children[0];
+        }
+        return new LeafIterator(node, 0);
+    }
+
+    @Override
+    public Iterator<E> iterator(E from) {
+        if (from == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node leaf = findLeaf(from);
+        int pos = search(leaf, from);
+        return new LeafIterator(leaf, pos >= 0 ? pos : -pos - 1);
+    }
+
+    /**
+     * Reads the leaves one after another through their links
+     */
+    private class LeafIterator implements Iterator<E> {
+
+        private Node leaf;
+        private int index;
+        private final int expectedModCount = modCount;
+
+        LeafIterator(Node leaf, int index) {
+            this.leaf = leaf;
+            this.index = index;
+            skipFinished();
+        }
+
+        private void skipFinished() {
+            while (leaf != null && index >= leaf.size) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            E value = key(leaf, index++);
+            skipFinished();
+            return value;
+        }
+    }
+
+    private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * The height is the number of levels, the same for every leaf
+     */
+    @Override
+    public SetStats stats() {
+        int height = 1;
+        for (Node node = root; !node.isLeaf(); node = node.children[0]) {
+            height++;
+        }
+        return Metrics.stats(metrics, this, height);
+    }
+
+    @Override
+    public String toString() {
+        return "BPT" + inorderTraverse();
+    }
+}
@@ -0,0 +1,207 @@
+package ru.mail.polis;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Helpers of the batch operations {@link ISet#addAll(List)}, {@link ISet#containsAll(List)}
+ * and {@link ISet#removeAll(List)}.
+ */
+final class Batch {
+
+    /**
+     * Hash tables hash this many keys and read their first slots (or buckets) before probing any of them,
+     * so the cache misses of the group overlap instead of following one another.
+     * Java has no explicit prefetch; independent loads are the nearest thing.
+     */
+    static final int GROUP = 16;
+
+    private static final int INSERTION_SORT = 16;
+
+    /**
+     * Navigation of a binary search tree of node objects for {@link #containsAll(List, Comparator, Object, Tree,
+     * Comparator)}; {@code null} stands for no node
+     */
+    interface Tree<N, E> {
+
+        N left(N node);
+
+        N right(N node);
+
+        E value(N node);
+    }
+
+    /**
+     * Same for a tree whose nodes are indices into arrays, so that the walk does not box them; 0 stands for no node
+     */
+    interface IntTree<E> {
+
+        int left(int node);
+
+        int right(int node);
+
+        E value(int node);
+    }
+
+    private Batch() {
+    }
+
+    /**
+     * Looks up the whole batch in one walk of a binary search tree: the sorted keys are split by every node
+     * on the way, so the common part of their search paths is passed once
+     *
+     * @param comparator order of the tree, null for the natural order; the batch is sorted by it
+     * @param compare    comparison of the keys with the nodes, which the tree may count
+     */
+    static <N, E extends Comparable<E>> BitSet containsAll(List<E> values, Comparator<E> comparator, N root,
+                                                           Tree<N, E> tree, Comparator<E> compare) {
+        int[] order = sortedOrder(values, comparator);
+        BitSet result = new BitSet(values.size());
+        containsAll(tree, root, values, order, 0, order.length, result, compare);
+        return result;
+    }
+
+    static <E extends Comparable<E>> BitSet containsAll(List<E> values, Comparator<E> comparator, int root,
+                                                        IntTree<E> tree, Comparator<E> compare) {
+        int[] order = sortedOrder(values, comparator);
+        BitSet result = new BitSet(values.size());
+        containsAll(tree, root, values, order, 0, order.length, result, compare);
+        return result;
+    }
+
+    private static <N, E> void containsAll(Tree<N, E> tree, N node, List<E> values, int[] order, int from, int to,
+                                           BitSet result, Comparator<E> compare) {
+        while (node != null && from < to) {
+            E value = tree.value(node);
+            //Ключи меньше узла уходят влево, равные найдены, большие уходят вправо
+            int lo = lowerBound(values, order, from, to, value, compare);
+            int hi = markEqual(values, order, lo, to, value, result, compare);
+            containsAll(tree, tree.left(node), values, order, from, lo, result, compare);
+            node = tree.right(node);
+            from = hi;
+        }
+    }
+
+    private static <E> void containsAll(IntTree<E> tree, int node, List<E> values, int[] order, int from, int to,
+                                        BitSet result, Comparator<E> compare) {
+        while (node != 0 && from < to) {
+            E value = tree.value(node);
+            int lo = lowerBound(values, order, from, to, value, compare);
+            int hi = markEqual(values, order, lo, to, value, result, compare);
+            containsAll(tree, tree.left(node), values, order, from, lo, result, compare);
+            node = tree.right(node);
+            from = hi;
+        }
+    }
+
+    /**
+     * Marks as found the keys from {@code order[lo]} on that are equal to the value of the node
+     *
+     * @return the position after them
+     */
+    private static <E> int markEqual(List<E> values, int[] order, int lo, int to, E value, BitSet result,
+                                     Comparator<E> compare) {
+        int hi = lo;
+        while (hi < to && compare.compare(values.get(order[hi]), value) == 0) {
+            result.set(order[hi++]);
+        }
+        return hi;
+    }
+
+    /**
+     * A batch that is already sorted costs one pass, otherwise the indices are sorted by a stable sort
+     *
+     * @return indices of the values in ascending order of the values, equal values in the order of their indices
+     * @throws NullPointerException if one of the values is null
+     */
+    static <E extends Comparable<E>> int[] sortedOrder(List<E> values, Comparator<E> comparator) {
+        int[] order = new int[values.size()];
+        boolean sorted = true;
+        E prev = null;
+        for (int i = 0; i < order.length; i++) {
+            E value = values.get(i);
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            if (prev != null && compare(comparator, prev, value) > 0) {
+                sorted = false;
+            }
+            prev = value;
+            order[i] = i;
+        }
+        if (sorted) {
+            return order;
+        }
+        //Ключи сортируются вместе с индексами: сравнение не ходит через список
+        Object[] keys = values.toArray();
+        mergeSort(keys, order, keys.clone(), order.clone(), 0, order.length, comparator);
+        return order;
+    }
+
+    /**
+     * Stable sort of {@code keys[from, to)} and {@code order[from, to)} by the keys;
+     * the buffers hold the same elements on entry
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Comparable<E>> void mergeSort(Object[] keys, int[] order, Object[] keyBuffer,
+                                                            int[] orderBuffer, int from, int to,
+                                                            Comparator<E> comparator) {
+        if (to - from <= INSERTION_SORT) {
+            for (int i = from + 1; i < to; i++) {
+                Object key = keys[i];
+                int idx = order[i];
+                int j = i - 1;
+                for (; j >= from && compare(comparator, (E) keys[j], (E) key) > 0; j--) {
+                    keys[j + 1] = keys[j];
+                    order[j + 1] = order[j];
+                }
+                keys[j + 1] = key;
+                order[j + 1] = idx;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        //Половины сортируются в буферах и сливаются обратно, без копирования на каждом уровне
+        mergeSort(keyBuffer, orderBuffer, keys, order, from, mid, comparator);
+        mergeSort(keyBuffer, orderBuffer, keys, order, mid, to, comparator);
+        for (int i = from, left = from, right = mid; i < to; i++) {
+            if (right >= to || left < mid && compare(comparator, (E) keyBuffer[left], (E) keyBuffer[right]) <= 0) {
+                keys[i] = keyBuffer[left];
+                order[i] = orderBuffer[left++];
+            } else {
+                keys[i] = keyBuffer[right];
+                order[i] = orderBuffer[right++];
+            }
+        }
+    }
+
+    /**
+     * @return the first position in {@code order[from, to)} whose value is not less than the key
+     */
+    static <E> int lowerBound(List<E> values, int[] order, int from, int to, E key, Comparator<E> compare) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (compare.compare(values.get(order[mid]), key) < 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * @throws NullPointerException if the value is null
+     */
+    static <E> E checked(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return value;
+    }
+
+    private static <E extends Comparable<E>> int compare(Comparator<E> comparator, E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+}
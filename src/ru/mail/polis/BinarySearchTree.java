@@ -1,10 +1,15 @@
 package ru.mail.polis;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Spliterator;
 
 public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E> {
 
@@ -35,7 +40,9 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
 
     private Node root;
     private int size;
+    private int modCount;
     private final Comparator<E> comparator;
+    private final Metrics metrics = Metrics.create();
 
     public BinarySearchTree() {
         this.comparator = null;
@@ -45,6 +52,52 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
         this.comparator = comparator;
     }
 
+    /**
+     * Builds a balanced tree from values in ascending order in linear time.
+     * Equal neighbours are added once.
+     * @throws IllegalArgumentException if the values are not sorted
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> fromSorted(Iterable<E> values) {
+        return fromSorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> BinarySearchTree<E> fromSorted(Iterable<E> values,
+                                                                           Comparator<E> comparator) {
+        BinarySearchTree<E> tree = new BinarySearchTree<>(comparator);
+        tree.build(BulkLoad.distinctSorted(values, comparator));
+        return tree;
+    }
+
+    /**
+     * Sorts the values and builds a balanced tree from them, duplicates are added once
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> fromUnsorted(Collection<E> values) {
+        return fromUnsorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> BinarySearchTree<E> fromUnsorted(Collection<E> values,
+                                                                             Comparator<E> comparator) {
+        BinarySearchTree<E> tree = new BinarySearchTree<>(comparator);
+        tree.build(BulkLoad.distinctUnsorted(values, comparator));
+        return tree;
+    }
+
+    private void build(List<E> values) {
+        root = build(values, 0, values.size());
+        size = values.size();
+    }
+
+    private Node build(List<E> values, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        Node node = new Node(values.get(mid));
+        node.left = build(values, from, mid);
+        node.right = build(values, mid + 1, to);
+        return node;
+    }
+
     @Override
     public E first() {
         if (isEmpty()) {
@@ -69,6 +122,67 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
         return curr.value;
     }
 
+    @Override
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E floor(E value) {
+        return lowerValue(value, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return higherValue(value, true);
+    }
+
+    @Override
+    public E lower(E value) {
+        return lowerValue(value, false);
+    }
+
+    @Override
+    public E higher(E value) {
+        return higherValue(value, false);
+    }
+
+    private E lowerValue(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        E result = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp < 0 || inclusive && cmp == 0) {
+                result = curr.value;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return result;
+    }
+
+    private E higherValue(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        E result = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp > 0 || inclusive && cmp == 0) {
+                result = curr.value;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return result;
+    }
+
     @Override
     public int size() {
         return size;
@@ -86,9 +200,14 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
         }
         if (root != null) {
             Node curr = root;
+            int depth = 0;
             while (curr != null) {
+                depth++;
                 int cmp = compare(curr.value, value);
                 if (cmp == 0) {
+                    if (Metrics.ENABLED) {
+                        metrics.probed(depth);
+                    }
                     return true;
                 } else if (cmp < 0) {
                     curr = curr.right;
@@ -96,6 +215,9 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
                     curr = curr.left;
                 }
             }
+            if (Metrics.ENABLED) {
+                metrics.probed(depth);
+            }
         }
         return false;
     }
@@ -109,9 +231,14 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
             root = new Node(value);
         } else {
             Node curr = root;
+            int depth = 0;
             while (true) {
+                depth++;
                 int cmp = compare(curr.value, value);
                 if (cmp == 0) {
+                    if (Metrics.ENABLED) {
+                        metrics.probed(depth);
+                    }
                     return false;
                 } else if (cmp < 0) {
                     if (curr.right != null) {
@@ -129,8 +256,12 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
                     }
                 }
             }
+            if (Metrics.ENABLED) {
+                metrics.probed(depth);
+            }
         }
         size++;
+        modCount++;
         return true;
     }
 
@@ -182,6 +313,7 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
             }
         }
         size--;
+        modCount++;
         return true;
     }
 
@@ -197,23 +329,108 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
     }
 
     private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
+    /**
+     * The tree keeps no subtree sizes, so it is split by the iterator in growing batches
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new IteratorSpliterator<>(iterator(), size(), Spliterator.SIZED, comparator);
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, height());
+    }
+
+    /**
+     * Level by level, since a degenerate tree is too deep for recursion
+     */
+    private int height() {
+        int height = 0;
+        Deque<Node> level = new ArrayDeque<>();
+        if (root != null) {
+            level.add(root);
+        }
+        while (!level.isEmpty()) {
+            height++;
+            for (int i = level.size(); i > 0; i--) {
+                Node node = level.poll();
+                if (node.left != null) {
+                    level.add(node.left);
+                }
+                if (node.right != null) {
+                    level.add(node.right);
+                }
+            }
+        }
+        return height;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        InorderIterator iterator = new InorderIterator();
+        iterator.pushLeft(root);
+        return iterator;
+    }
+
     @Override
-    public List<E> inorderTraverse() {
-        List<E> list = new ArrayList<E>(size);
-        inorderTraverse(root, list);
-        return list;
+    public Iterator<E> iterator(E from) {
+        if (from == null) {
+            throw new NullPointerException("value is null");
+        }
+        InorderIterator iterator = new InorderIterator();
+        //На стеке - узлы пути, не меньшие from: они и их правые поддеревья ещё впереди
+        Node curr = root;
+        while (curr != null) {
+            if (compare(curr.value, from) >= 0) {
+                iterator.stack.push(curr);
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return iterator;
     }
 
-    private void inorderTraverse(Node curr, List<E> list) {
-        if (curr == null) {
-            return;
+    /**
+     * Keeps the path to the next node on an explicit stack instead of recursion,
+     * so a degenerate tree can not overflow the call stack
+     */
+    private class InorderIterator implements Iterator<E> {
+
+        private final Deque<Node> stack = new ArrayDeque<>();
+        private final int expectedModCount = modCount;
+
+        private void pushLeft(Node curr) {
+            while (curr != null) {
+                stack.push(curr);
+                curr = curr.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node curr = stack.pop();
+            pushLeft(curr.right);
+            return curr.value;
         }
-        inorderTraverse(curr.left, list);
-        list.add(curr.value);
-        inorderTraverse(curr.right, list);
     }
 
     @Override
@@ -0,0 +1,79 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prepares input of the {@code fromSorted} / {@code fromUnsorted} factories of sorted sets:
+ * distinct values in ascending order, ready to be laid out bottom-up in linear time.
+ */
+final class BulkLoad {
+
+    private BulkLoad() {
+    }
+
+    /**
+     * @return values without duplicates, in the same order
+     * @throws IllegalArgumentException if the values are not in ascending order
+     * @throws NullPointerException     if one of the values is null
+     */
+    static <E extends Comparable<E>> List<E> distinctSorted(Iterable<E> values, Comparator<E> comparator) {
+        List<E> result = values instanceof Collection ? new ArrayList<>(((Collection<E>) values).size())
+                : new ArrayList<>();
+        E prev = null;
+        for (E value : values) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            if (prev != null) {
+                int cmp = compare(comparator, prev, value);
+                if (cmp > 0) {
+                    throw new IllegalArgumentException("values are not sorted: " + prev + " > " + value);
+                }
+                if (cmp == 0) {
+                    continue;
+                }
+            }
+            result.add(value);
+            prev = value;
+        }
+        return result;
+    }
+
+    /**
+     * @return values sorted and without duplicates
+     * @throws NullPointerException if one of the values is null
+     */
+    static <E extends Comparable<E>> List<E> distinctUnsorted(Collection<E> values, Comparator<E> comparator) {
+        E[] array = values.toArray(newArray(values.size()));
+        for (E value : array) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+        }
+        Arrays.sort(array, (v1, v2) -> compare(comparator, v1, v2));
+        return distinctSorted(Arrays.asList(array), comparator);
+    }
+
+    /**
+     * @return depth of the lowest level of a tree of the given size built by halving
+     */
+    static int lowestLevel(int size) {
+        return 31 - Integer.numberOfLeadingZeros(size);
+    }
+
+    /**
+     * Erasure of E is Comparable, so an array of Comparable can hold any E
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Comparable<E>> E[] newArray(int length) {
+        return (E[]) new Comparable<?>[length];
+    }
+
+    private static <E extends Comparable<E>> int compare(Comparator<E> comparator, E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+}
@@ -1,11 +1,32 @@
 package ru.mail.polis;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
+    /**
+     * Which key a bounded table evicts when it is full, see {@link #bounded}
+     */
+    public enum Eviction {
+
+        /**
+         * Least recently added or found key
+         */
+        LRU,
+
+        /**
+         * Second chance: a key found since the hand last passed it is skipped once.
+         * A lookup only sets a bit, while {@link #LRU} relinks the node on every hit.
+         */
+        CLOCK
+    }
+
     class Node {
         E value;
         Node next;
@@ -26,22 +47,109 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
         }
     }
 
+    /**
+     * Node of a bounded table, which is also linked into the ring of all keys in the order of eviction
+     */
+    class LinkedNode extends Node {
+        LinkedNode before;
+        LinkedNode after;
+        boolean referenced;
+
+        LinkedNode(E value) {
+            super(value);
+        }
+    }
+
     private final int INITIAL_CAPACITY = 8;
 //    private final float LOAD_FACTOR = 0.5f;
+    //Сколько корзин старой таблицы переносится за одну операцию
+    private static final int MIGRATION_STEP = 4;
+    //Цепочка длиннее превращается в красно-чёрное дерево
+    private static final int TREEIFY_THRESHOLD = 8;
+    //Дерево такого размера и меньше снова становится цепочкой
+    private static final int UNTREEIFY_THRESHOLD = 6;
 
     private Comparator<E> comparator;
+    private final HashStrategy<? super E> strategy;
     private Object[] table;
+    //Таблица, из которой идёт постепенный перенос; null, если перехеширования нет
+    private Object[] oldTable;
+    //Корзины старой таблицы с меньшими индексами уже перенесены
+    private int migrated;
     private int size;
+    //Наибольший размер ограниченной таблицы, 0 - таблица без ограничения
+    private final int maxSize;
+    private final Eviction eviction;
+    private final Consumer<? super E> listener;
+    //Следующий кандидат на вытеснение: самый старый ключ для LRU, стрелка для CLOCK
+    private LinkedNode hand;
+    private final Metrics metrics = Metrics.create();
 
     public ChainHashTable() {
         this(null);
     }
 
     public ChainHashTable(Comparator<E> comparator) {
+        this(comparator, HashStrategy.murmur3());
+    }
+
+    /**
+     * @param strategy hash of the keys, by default seeded MurmurHash3 mixing of the hash code
+     */
+    public ChainHashTable(Comparator<E> comparator, HashStrategy<? super E> strategy) {
+        this(comparator, strategy, 0, null, null);
+        if (strategy == null) {
+            throw new NullPointerException("strategy is null");
+        }
+    }
+
+    private ChainHashTable(Comparator<E> comparator, HashStrategy<? super E> strategy,
+                           int maxSize, Eviction eviction, Consumer<? super E> listener) {
         this.comparator = comparator;
+        this.strategy = strategy;
+        this.maxSize = maxSize;
+        this.eviction = eviction;
+        this.listener = listener;
         this.table = new Object[INITIAL_CAPACITY];
     }
 
+    /**
+     * Table for a cache, which never holds more than {@code maxSize} keys:
+     * adding a key to a full table first evicts one key in amortized O(1) and passes it to the listener.
+     * {@code contains} and adding a present key count as a use of the key.
+     * The table grows as usual until it fits {@code maxSize} keys, then its memory stays flat.
+     * Its chains are never turned into trees, since the nodes keep the order of eviction.
+     *
+     * @param listener called with every evicted key, may be null
+     * @throws IllegalArgumentException if {@code maxSize} is not positive
+     */
+    public static <E extends Comparable<E>> ChainHashTable<E> bounded(int maxSize, Eviction eviction,
+                                                                      Consumer<? super E> listener) {
+        return ChainHashTable.<E>bounded(maxSize, eviction, null, listener);
+    }
+
+    /**
+     * Same as {@link #bounded(int, Eviction, Consumer)} with a comparator
+     */
+    public static <E extends Comparable<E>> ChainHashTable<E> bounded(int maxSize, Eviction eviction,
+                                                                      Comparator<E> comparator,
+                                                                      Consumer<? super E> listener) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("max size is not positive: " + maxSize);
+        }
+        if (eviction == null) {
+            throw new NullPointerException("eviction is null");
+        }
+        return new ChainHashTable<>(comparator, HashStrategy.murmur3(), maxSize, eviction, listener);
+    }
+
+    /**
+     * @return the bound of the size, 0 if the table is not bounded
+     */
+    public int maxSize() {
+        return maxSize;
+    }
+
     @Override
     public int size() {
         return size;
@@ -54,49 +162,141 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     @Override
     public boolean contains(E value) {
-        Node curr = getNode(hash(value));
-        while (curr != null && !curr.equals(value)) {
+        migrate();
+        return contains(table, value) || oldTable != null && contains(oldTable, value);
+    }
+
+    private boolean contains(Object[] tab, E value) {
+        return contains(tab[hash(value, tab.length)], value);
+    }
+
+    private boolean contains(Object bucket, E value) {
+        if (bucket instanceof RedBlackTree) {
+            return asTree(bucket).contains(value);
+        }
+        Node curr = asNode(bucket);
+        int length = 0;
+        while (curr != null && compare(value, curr.value) != 0) {
             curr = curr.next;
+            length++;
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(curr == null ? length : length + 1);
         }
         //Вышли по второму условию
-        return curr != null;
+        if (curr == null) {
+            return false;
+        }
+        if (maxSize > 0) {
+            touch((LinkedNode) curr);
+        }
+        return true;
     }
 
+    /**
+     * Reads the buckets of a group of {@link Batch#GROUP} keys before walking any of them, see there
+     */
     @Override
-    public boolean add(E value) {
-        int idx = hash(value);
-        if (table[idx] == null) {
-            table[idx] = new Node(value);
-        } else {
-            Node curr = getNode(idx);
-            while (curr.next != null && compare(value, curr.value) != 0) {
-                curr = curr.next;
+    public BitSet containsAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        Object[] buckets = new Object[Batch.GROUP];
+        for (int from = 0; from < values.size(); from += Batch.GROUP) {
+            int to = Math.min(from + Batch.GROUP, values.size());
+            //Один шаг переноса на группу, чтобы таблица не менялась между чтением корзин и обходом
+            migrate();
+            Object[] tab = table;
+            for (int i = from; i < to; i++) {
+                buckets[i - from] = tab[hash(Batch.checked(values.get(i)), tab.length)];
             }
-            if (compare(value, curr.value) == 0) {
-                return false;
+            for (int i = from; i < to; i++) {
+                E value = values.get(i);
+                if (contains(buckets[i - from], value) || oldTable != null && contains(oldTable, value)) {
+                    result.set(i);
+                }
             }
-            curr.next = new Node(value);
         }
+        return result;
+    }
+
+    @Override
+    public boolean add(E value) {
+        migrate();
+        if (contains(table, value) || oldTable != null && contains(oldTable, value)) {
+            return false;
+        }
+        if (maxSize == 0) {
+            //Новые элементы всегда кладём в новую таблицу
+            link(table, hash(value, table.length), new Node(value));
+            size++;
+            resize();
+            return true;
+        }
+        if (size == maxSize) {
+            evict();
+        }
+        LinkedNode node = new LinkedNode(value);
+        link(table, hash(value, table.length), node);
+        enqueue(node);
         size++;
         resize();
         return true;
     }
 
+    /**
+     * Puts the node at the head of the chain, or its value into the tree of the bucket.
+     * A chain that grows longer than {@link #TREEIFY_THRESHOLD} becomes a tree.
+     */
+    private void link(Object[] tab, int idx, Node node) {
+        Object bucket = tab[idx];
+        if (bucket instanceof RedBlackTree) {
+            asTree(bucket).add(node.value);
+            return;
+        }
+        node.next = asNode(bucket);
+        tab[idx] = node;
+        int length = 0;
+        for (Node curr = node; curr != null; curr = curr.next) {
+            length++;
+        }
+        if (length > TREEIFY_THRESHOLD && maxSize == 0) {
+            treeify(tab, idx);
+        }
+    }
+
     @Override
     public boolean remove(E value) {
+        migrate();
+        return remove(table, value) || oldTable != null && remove(oldTable, value);
+    }
+
+    private boolean remove(Object[] tab, E value) {
+        int idx = hash(value, tab.length);
+        if (tab[idx] instanceof RedBlackTree) {
+            RedBlackTree<E> tree = asTree(tab[idx]);
+            if (!tree.remove(value)) {
+                return false;
+            }
+            if (tree.size() <= UNTREEIFY_THRESHOLD) {
+                untreeify(tab, idx);
+            }
+            size--;
+            return true;
+        }
         Node prev = null;
-        int idx = hash(value);
-        Node curr = getNode(idx);
+        Node curr = getNode(tab, idx);
         while (curr != null && compare(value, curr.value) != 0) {
             prev = curr;
             curr = curr.next;
         }
         if (curr != null) {
             if (prev == null) { //head
-                table[idx] = getNode(idx).next;
+                tab[idx] = curr.next;
             } else {
                 prev.next = curr.next;
             }
+            if (maxSize > 0) {
+                dequeue((LinkedNode) curr);
+            }
             curr.value = null;
             curr.next = null;
             size--;
@@ -105,48 +305,368 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
         return false;
     }
 
-    private int hash(E value) {
-        return Math.abs(value.hashCode()) % table.length;
+    /**
+     * Puts a new node last in the order of eviction, just behind the hand
+     */
+    private void enqueue(LinkedNode node) {
+        if (hand == null) {
+            node.before = node;
+            node.after = node;
+            hand = node;
+            return;
+        }
+        node.before = hand.before;
+        node.after = hand;
+        hand.before.after = node;
+        hand.before = node;
+    }
+
+    private void dequeue(LinkedNode node) {
+        if (node.after == node) {
+            hand = null;
+        } else {
+            node.before.after = node.after;
+            node.after.before = node.before;
+            if (hand == node) {
+                hand = node.after;
+            }
+        }
+        node.before = null;
+        node.after = null;
+    }
+
+    private void touch(LinkedNode node) {
+        if (eviction == Eviction.CLOCK) {
+            node.referenced = true;
+        } else if (node == hand) {
+            //Самый старый ключ становится самым новым: кольцо остаётся на месте, сдвигается начало
+            hand = node.after;
+        } else if (node.after != hand) {
+            dequeue(node);
+            enqueue(node);
+        }
+    }
+
+    /**
+     * Removes the key under the hand. CLOCK first clears the bits of the keys used since the last pass
+     * and moves on; every bit is cleared once per its use, so the eviction takes amortized O(1).
+     */
+    private void evict() {
+        if (eviction == Eviction.CLOCK) {
+            while (hand.referenced) {
+                hand.referenced = false;
+                hand = hand.after;
+            }
+        }
+        E victim = hand.value;
+        if (!remove(table, victim) && oldTable != null) {
+            remove(oldTable, victim);
+        }
+        if (listener != null) {
+            listener.accept(victim);
+        }
+    }
+
+    private void treeify(Object[] tab, int idx) {
+        RedBlackTree<E> tree = new RedBlackTree<>(comparator);
+        for (Node curr = getNode(tab, idx); curr != null; curr = curr.next) {
+            tree.add(curr.value);
+        }
+        tab[idx] = tree;
+    }
+
+    private void untreeify(Object[] tab, int idx) {
+        Node head = null;
+        for (E value : asTree(tab[idx])) {
+            Node node = new Node(value);
+            node.next = head;
+            head = node;
+        }
+        tab[idx] = head;
+    }
+
+    /**
+     * Capacity is a power of two, so the index is the low bits of the hash, without a division
+     */
+    private int hash(E value, int length) {
+        return strategy.hash(value) & (length - 1);
+    }
+
+    private Node getNode(Object[] tab, int idx) {
+        return asNode(tab[idx]);
     }
 
     @SuppressWarnings("unchecked")
-    private Node getNode(int idx) {
-        return (Node) table[idx];
+    private Node asNode(Object bucket) {
+        return (Node) bucket;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedBlackTree<E> asTree(Object bucket) {
+        return (RedBlackTree<E>) bucket;
     }
 
     private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Starts incremental rehashing into a table twice as large.
+     * The old table is moved by {@link #migrate()} a few buckets per operation.
+     * It is drained long before the new table is half full,
+     * the full drain here is only a safety net.
+     */
     private void resize() {
         if (size * 2 < table.length) {
             return;
         }
-        Object[] old = this.table;
-        size = 0;
+        while (oldTable != null) {
+            migrate();
+        }
+        oldTable = table;
+        migrated = 0;
         table = new Object[table.length << 1];
-        for (int i = 0; i < old.length; i++) {
-            Node node = (Node) old[i];
-            if (node != null) {
-                Node curr = node;
+        if (Metrics.ENABLED) {
+            metrics.rehashed();
+        }
+    }
+
+    /**
+     * Moves all the buckets left in the old table, for operations that need the whole set in one table
+     */
+    private void finishMigration() {
+        while (oldTable != null) {
+            migrate();
+        }
+    }
+
+    /**
+     * Moves the next {@link #MIGRATION_STEP} buckets of the old table to the new one,
+     * relinking the existing nodes
+     */
+    private void migrate() {
+        if (oldTable == null) {
+            return;
+        }
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        int end = Math.min(migrated + MIGRATION_STEP, oldTable.length);
+        for (; migrated < end; migrated++) {
+            Object bucket = oldTable[migrated];
+            if (bucket instanceof RedBlackTree) {
+                migrateTree(asTree(bucket));
+            } else {
+                Node curr = asNode(bucket);
                 while (curr != null) {
                     Node next = curr.next;
-                    //FIXME: insert value in head (all unique)
-                    add(curr.value);
-                    curr.next = null;
-                    curr.value = null;
+                    link(table, hash(curr.value, table.length), curr);
                     curr = next;
                 }
-                old[i] = null;
+            }
+            oldTable[migrated] = null;
+        }
+        if (migrated == oldTable.length) {
+            oldTable = null;
+        }
+        if (Metrics.ENABLED) {
+            metrics.paused(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Moves the whole tree if all its values fall into the same bucket
+     * (the usual case for colliding keys), otherwise spreads the values one by one
+     */
+    private void migrateTree(RedBlackTree<E> tree) {
+        int idx = -1;
+        for (E value : tree) {
+            int curr = hash(value, table.length);
+            if (idx < 0) {
+                idx = curr;
+            } else if (idx != curr) {
+                idx = -1;
+                break;
+            }
+        }
+        if (idx >= 0) {
+            //Сливаем то, что уже успели добавить в новую корзину, в переносимое дерево
+            Object target = table[idx];
+            table[idx] = tree;
+            if (target instanceof RedBlackTree) {
+                for (E value : asTree(target)) {
+                    tree.add(value);
+                }
+            } else {
+                for (Node curr = asNode(target); curr != null; curr = curr.next) {
+                    tree.add(curr.value);
+                }
+            }
+            return;
+        }
+        for (E value : tree) {
+            link(table, hash(value, table.length), new Node(value));
+        }
+    }
+
+    /**
+     * Finishes an incremental rehash first, then splits by ranges of buckets
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        finishMigration();
+        Object[] tab = table;
+        return new SlotSpliterator<E>((idx, action) -> {
+            Object bucket = tab[idx];
+            if (bucket instanceof RedBlackTree) {
+                asTree(bucket).forEach(action);
+                return;
+            }
+            for (Node curr = asNode(bucket); curr != null; curr = curr.next) {
+                action.accept(curr.value);
+            }
+        }, tab.length, size, 0);
+    }
+
+    /**
+     * Probes count the nodes of chains; lookups in buckets turned into trees are counted by the trees
+     */
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, -1);
+    }
+
+    /**
+     * Finishes an incremental rehash and writes the hash strategy and every bucket: the number of values,
+     * whether it is a tree, and the values in chain or tree order.
+     * {@link #readBuckets} puts them back into the same buckets without hashing.
+     *
+     * @throws IllegalArgumentException if the table has a custom hash strategy
+     */
+    void writeBuckets(Snapshot.Writer out, Codec<E> codec) throws IOException {
+        finishMigration();
+        out.strategy(strategy);
+        out.ensure(2 * Integer.BYTES).putInt(table.length).putInt(size);
+        for (Object bucket : table) {
+            if (bucket instanceof RedBlackTree) {
+                RedBlackTree<E> tree = asTree(bucket);
+                out.ensure(Integer.BYTES + 1).putInt(tree.size()).put((byte) 1);
+                for (E value : tree) {
+                    out.element(value, codec);
+                }
+            } else {
+                int length = 0;
+                for (Node curr = asNode(bucket); curr != null; curr = curr.next) {
+                    length++;
+                }
+                out.ensure(Integer.BYTES + 1).putInt(length);
+                if (length > 0) {
+                    out.ensure(1).put((byte) 0);
+                }
+                for (Node curr = asNode(bucket); curr != null; curr = curr.next) {
+                    out.element(curr.value, codec);
+                }
             }
         }
     }
 
+    /**
+     * Writes a bounded table: the hash strategy, the bound and the eviction policy,
+     * then the keys in the order of eviction starting from the hand, each with its CLOCK bit.
+     * {@link #readRing} hashes them back into a table of the same capacity.
+     *
+     * @throws IllegalArgumentException if the table has a custom hash strategy
+     */
+    void writeRing(Snapshot.Writer out, Codec<E> codec) throws IOException {
+        finishMigration();
+        out.strategy(strategy);
+        out.ensure(3 * Integer.BYTES + 1).putInt(maxSize).put((byte) eviction.ordinal())
+                .putInt(table.length).putInt(size);
+        LinkedNode node = hand;
+        for (int i = 0; i < size; i++) {
+            out.element(node.value, codec);
+            out.ensure(1).put((byte) (node.referenced ? 1 : 0));
+            node = node.after;
+        }
+    }
+
+    /**
+     * @param listener called with every key evicted from the loaded table, may be null
+     * @throws IOException if the snapshot is truncated or corrupted
+     */
+    static <E extends Comparable<E>> ChainHashTable<E> readRing(Snapshot.Reader in, Codec<E> codec,
+                                                                Comparator<E> comparator,
+                                                                Consumer<? super E> listener) throws IOException {
+        //Ограниченных таблиц в первой версии не было
+        HashStrategy<E> strategy = in.strategy(Mixer.IDENTITY);
+        int maxSize = in.count();
+        int kind = in.need(1).get();
+        Eviction[] evictions = Eviction.values();
+        if (maxSize == 0 || kind < 0 || kind >= evictions.length) {
+            throw new IOException("corrupted snapshot: bad bound " + maxSize + " or eviction " + kind);
+        }
+        ChainHashTable<E> result = new ChainHashTable<>(comparator, strategy, maxSize, evictions[kind], listener);
+        result.table = new Object[in.capacity()];
+        int size = in.count();
+        if (size > maxSize) {
+            throw new IOException("corrupted snapshot: " + size + " keys over the bound " + maxSize);
+        }
+        //Ключи идут в порядке вытеснения, а enqueue ставит каждый следующий последним
+        for (int i = 0; i < size; i++) {
+            ChainHashTable<E>.LinkedNode node = result.new LinkedNode(in.element(codec));
+            node.referenced = in.need(1).get() != 0;
+            result.link(result.table, result.hash(node.value, result.table.length), node);
+            result.enqueue(node);
+        }
+        result.size = size;
+        return result;
+    }
+
+    /**
+     * @throws IOException if the snapshot is truncated or corrupted
+     */
+    static <E extends Comparable<E>> ChainHashTable<E> readBuckets(Snapshot.Reader in, Codec<E> codec,
+                                                                   Comparator<E> comparator) throws IOException {
+        ChainHashTable<E> result = new ChainHashTable<>(comparator, in.<E>strategy(Mixer.IDENTITY));
+        result.table = new Object[in.capacity()];
+        result.size = in.count();
+        for (int i = 0; i < result.table.length; i++) {
+            int length = in.count();
+            if (length == 0) {
+                continue;
+            }
+            if (in.need(1).get() != 0) {
+                List<E> values = new ArrayList<>(length);
+                for (int j = 0; j < length; j++) {
+                    values.add(in.element(codec));
+                }
+                result.table[i] = RedBlackTree.fromSorted(values, comparator);
+                continue;
+            }
+            //Сохраняем порядок цепочки
+            ChainHashTable<E>.Node tail = null;
+            for (int j = 0; j < length; j++) {
+                ChainHashTable<E>.Node node = result.new Node(in.element(codec));
+                if (tail == null) {
+                    result.table[i] = node;
+                } else {
+                    tail.next = node;
+                }
+                tail = node;
+            }
+        }
+        return result;
+    }
+
     private void print() {
         for (int i = 0; i < table.length; i++) {
-            Node curr = getNode(i);
-            System.out.println("idx = " + i + ", " + curr);
+            System.out.println("idx = " + i + ", " + table[i]);
+        }
+        if (oldTable != null) {
+            for (int i = migrated; i < oldTable.length; i++) {
+                System.out.println("old idx = " + i + ", " + oldTable[i]);
+            }
         }
         System.out.println("-------------------------");
     }
@@ -0,0 +1,113 @@
+package ru.mail.polis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary form of set elements in a {@link Snapshot}.
+ * Elements of a fixed size are written back to back, others are prefixed with their size by the snapshot.
+ */
+public interface Codec<E> {
+
+    Codec<Integer> INT = new Codec<Integer>() {
+        @Override
+        public int fixedSize() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public int size(Integer value) {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void write(Integer value, ByteBuffer out) {
+            out.putInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer in, int size) {
+            return in.getInt();
+        }
+    };
+
+    Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public int fixedSize() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public int size(Long value) {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer out) {
+            out.putLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer in, int size) {
+            return in.getLong();
+        }
+    };
+
+    /**
+     * UTF-8 bytes of the string
+     */
+    Codec<String> STRING = new Codec<String>() {
+        @Override
+        public int fixedSize() {
+            return -1;
+        }
+
+        @Override
+        public int size(String value) {
+            //Для ASCII длина в байтах равна длине строки, остальные считаем честно
+            int size = value.length();
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) >= 0x80) {
+                    return value.getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public void write(String value, ByteBuffer out) {
+            out.put(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String read(ByteBuffer in, int size) {
+            String value;
+            if (in.hasArray()) {
+                value = new String(in.array(), in.arrayOffset() + in.position(), size, StandardCharsets.UTF_8);
+                in.position(in.position() + size);
+            } else {
+                byte[] bytes = new byte[size];
+                in.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+    };
+
+    /**
+     * @return size in bytes of every element, or -1 if elements differ in size
+     */
+    int fixedSize();
+
+    /**
+     * @return number of bytes {@link #write} puts for the element
+     */
+    int size(E value);
+
+    void write(E value, ByteBuffer out);
+
+    /**
+     * @param size number of bytes of the element, the same as {@link #size} returned when writing it
+     */
+    E read(ByteBuffer in, int size);
+}
@@ -0,0 +1,305 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe chained hash table.
+ * <p>
+ * Bucket heads are volatile and {@code next} links are final, so {@link #contains}
+ * never locks: a reader always sees a complete chain. Writers lock one stripe,
+ * which covers the buckets with the same low index bits; removal copies the part
+ * of the chain in front of the removed node.
+ * <p>
+ * Resizing is shared between threads: each thread that finds the table too full
+ * claims a range of old buckets, copies them into the doubled table and leaves
+ * a forwarding marker behind. Readers and writers that meet a marker go on in the new table.
+ * Bucket {@code i} of the old table and buckets {@code i}, {@code i + length} of the new one
+ * belong to the same stripe, so a moved bucket is never written concurrently.
+ */
+public class ConcurrentChainHashTable<E extends Comparable<E>> implements ISet<E> {
+
+    private static final int INITIAL_CAPACITY = 8;
+    //Сколько корзин забирает поток за один раз при переносе
+    private static final int TRANSFER_CHUNK = 16;
+
+    static class Node<E> {
+        final E value;
+        final Node<E> next;
+
+        Node(E value, Node<E> next) {
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Marker left in a bucket of the old table that has already been moved
+     */
+    static final class Forward<E> extends Node<E> {
+        final Table<E> next;
+
+        Forward(Table<E> next) {
+            super(null, null);
+            this.next = next;
+        }
+    }
+
+    static final class Table<E> {
+        final AtomicReferenceArray<Node<E>> buckets;
+        final int mask;
+        final AtomicReference<Table<E>> next = new AtomicReference<>();
+        //Следующая ещё не занятая корзина для переноса
+        final AtomicInteger transferIndex = new AtomicInteger();
+        final AtomicInteger transferred = new AtomicInteger();
+
+        Table(int capacity) {
+            this.buckets = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+    }
+
+    private final Comparator<E> comparator;
+    private final Object[] locks;
+    private final LongAdder size = new LongAdder();
+    private volatile Table<E> table;
+    //Длины цепочек пишут и читатели без замков, и писатели под разными замками, так что их счёт приблизителен
+    private final Metrics metrics = Metrics.create();
+
+    public ConcurrentChainHashTable() {
+        this(null);
+    }
+
+    public ConcurrentChainHashTable(Comparator<E> comparator) {
+        this(comparator, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param concurrencyLevel expected number of concurrently writing threads,
+     *                         rounded up to a power of two to get the number of lock stripes
+     */
+    public ConcurrentChainHashTable(Comparator<E> comparator, int concurrencyLevel) {
+        int stripes = Integer.highestOneBit(Math.max(concurrencyLevel, 1) * 2 - 1);
+        this.comparator = comparator;
+        this.locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+        //Таблица не меньше числа полос, тогда полоса корзины не меняется при удвоении
+        this.table = new Table<>(Math.max(INITIAL_CAPACITY, stripes));
+    }
+
+    @Override
+    public int size() {
+        long sum = size.sum();
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(sum, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        int h = hash(value);
+        Table<E> tab = table;
+        while (true) {
+            Node<E> curr = tab.buckets.get(h & tab.mask);
+            if (curr instanceof Forward) {
+                tab = ((Forward<E>) curr).next;
+                continue;
+            }
+            int length = 0;
+            while (curr != null) {
+                length++;
+                if (compare(value, curr.value) == 0) {
+                    if (Metrics.ENABLED) {
+                        metrics.probed(length);
+                    }
+                    return true;
+                }
+                curr = curr.next;
+            }
+            if (Metrics.ENABLED) {
+                metrics.probed(length);
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public boolean add(E value) {
+        int h = hash(value);
+        Table<E> tab = table;
+        while (true) {
+            int idx = h & tab.mask;
+            synchronized (lockFor(idx)) {
+                Node<E> head = tab.buckets.get(idx);
+                if (!(head instanceof Forward)) {
+                    int length = 0;
+                    for (Node<E> curr = head; curr != null; curr = curr.next) {
+                        length++;
+                        if (compare(value, curr.value) == 0) {
+                            if (Metrics.ENABLED) {
+                                metrics.probed(length);
+                            }
+                            return false;
+                        }
+                    }
+                    if (Metrics.ENABLED) {
+                        metrics.probed(length);
+                    }
+                    tab.buckets.set(idx, new Node<>(value, head));
+                    break;
+                }
+                tab = ((Forward<E>) head).next;
+            }
+        }
+        size.increment();
+        Table<E> current = table;
+        if (size.sum() * 2 >= current.buckets.length()) {
+            resize(current);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        int h = hash(value);
+        Table<E> tab = table;
+        while (true) {
+            int idx = h & tab.mask;
+            synchronized (lockFor(idx)) {
+                Node<E> head = tab.buckets.get(idx);
+                if (!(head instanceof Forward)) {
+                    Node<E> found = head;
+                    while (found != null && compare(value, found.value) != 0) {
+                        found = found.next;
+                    }
+                    if (found == null) {
+                        return false;
+                    }
+                    //Ссылки неизменяемые: копируем узлы перед удаляемым
+                    Node<E> rest = found.next;
+                    for (Node<E> curr = head; curr != found; curr = curr.next) {
+                        rest = new Node<>(curr.value, rest);
+                    }
+                    tab.buckets.set(idx, rest);
+                    break;
+                }
+                tab = ((Forward<E>) head).next;
+            }
+        }
+        size.decrement();
+        return true;
+    }
+
+    /**
+     * Starts resizing of the given table or joins the one in progress
+     */
+    private void resize(Table<E> old) {
+        Table<E> next = old.next.get();
+        if (next == null) {
+            Table<E> created = new Table<>(old.buckets.length() << 1);
+            if (old.next.compareAndSet(null, created)) {
+                next = created;
+                if (Metrics.ENABLED) {
+                    metrics.rehashed();
+                }
+            } else {
+                next = old.next.get();
+            }
+        }
+        //Каждый поток учитывает своё участие в переносе
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        int length = old.buckets.length();
+        int from;
+        while ((from = old.transferIndex.getAndAdd(TRANSFER_CHUNK)) < length) {
+            int to = Math.min(from + TRANSFER_CHUNK, length);
+            for (int idx = from; idx < to; idx++) {
+                transfer(old, next, idx);
+            }
+            if (old.transferred.addAndGet(to - from) == length) {
+                //Последний перенесённый кусок - публикуем новую таблицу
+                table = next;
+            }
+        }
+        if (Metrics.ENABLED) {
+            metrics.paused(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Splits the bucket between {@code idx} and {@code idx + length} of the new table
+     */
+    private void transfer(Table<E> old, Table<E> next, int idx) {
+        int length = old.buckets.length();
+        synchronized (lockFor(idx)) {
+            Node<E> low = null;
+            Node<E> high = null;
+            for (Node<E> curr = old.buckets.get(idx); curr != null; curr = curr.next) {
+                if ((hash(curr.value) & length) == 0) {
+                    low = new Node<>(curr.value, low);
+                } else {
+                    high = new Node<>(curr.value, high);
+                }
+            }
+            next.buckets.set(idx, low);
+            next.buckets.set(idx + length, high);
+            old.buckets.set(idx, new Forward<>(next));
+        }
+    }
+
+    private Object lockFor(int idx) {
+        return locks[idx & (locks.length - 1)];
+    }
+
+    private int hash(E value) {
+        int h = value.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * Weakly consistent: splits by ranges of buckets of the current table and follows the moved buckets
+     * into the next table, so it sees every element present for the whole traversal once,
+     * and may or may not see the changes made meanwhile
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        Table<E> tab = table;
+        return new SlotSpliterator<E>((idx, action) -> forEachIn(tab, idx, action),
+                tab.mask + 1, size(), Spliterator.CONCURRENT);
+    }
+
+    private void forEachIn(Table<E> tab, int idx, Consumer<? super E> action) {
+        Node<E> curr = tab.buckets.get(idx);
+        if (curr instanceof Forward) {
+            //Корзина i переехала в корзины i и i + length следующей таблицы
+            Table<E> next = ((Forward<E>) curr).next;
+            forEachIn(next, idx, action);
+            forEachIn(next, idx + tab.mask + 1, action);
+            return;
+        }
+        for (; curr != null; curr = curr.next) {
+            action.accept(curr.value);
+        }
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, -1);
+    }
+}
@@ -0,0 +1,220 @@
+package ru.mail.polis;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sorted set for many readers and few writers, built on {@link PersistentAVLTree}.
+ * <p>
+ * Every read goes to the current version and is wait-free. A write builds a new version,
+ * copying O(log n) nodes, and publishes it with a compare-and-set, retrying if another writer was first.
+ * {@link #snapshot()} returns a consistent version, which later writes never change;
+ * iterators walk such a version and never throw {@link java.util.ConcurrentModificationException}.
+ */
+public class CopyOnWriteSortedSet<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private final AtomicReference<PersistentAVLTree<E>> current;
+
+    public CopyOnWriteSortedSet() {
+        this(PersistentAVLTree.<E>empty());
+    }
+
+    public CopyOnWriteSortedSet(Comparator<E> comparator) {
+        this(PersistentAVLTree.empty(comparator));
+    }
+
+    /**
+     * @param initial first version of the set, for example built by {@link PersistentAVLTree#fromSorted}
+     */
+    public CopyOnWriteSortedSet(PersistentAVLTree<E> initial) {
+        if (initial == null) {
+            throw new NullPointerException("initial version is null");
+        }
+        this.current = new AtomicReference<>(initial);
+    }
+
+    /**
+     * @return the current version of the set
+     */
+    public PersistentAVLTree<E> snapshot() {
+        return current.get();
+    }
+
+    @Override
+    public boolean add(E value) {
+        while (true) {
+            PersistentAVLTree<E> version = current.get();
+            PersistentAVLTree<E> next = version.with(value);
+            if (next == version) {
+                return false;
+            }
+            if (current.compareAndSet(version, next)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(E value) {
+        while (true) {
+            PersistentAVLTree<E> version = current.get();
+            PersistentAVLTree<E> next = version.without(value);
+            if (next == version) {
+                return false;
+            }
+            if (current.compareAndSet(version, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Applies the whole batch to one version and publishes it with a single compare-and-set,
+     * so readers see either none or all of the batch
+     */
+    @Override
+    public BitSet addAll(List<E> values) {
+        int[] order = Batch.sortedOrder(values, comparator());
+        while (true) {
+            PersistentAVLTree<E> version = current.get();
+            PersistentAVLTree<E> next = version;
+            BitSet result = new BitSet(values.size());
+            for (int i : order) {
+                PersistentAVLTree<E> added = next.with(values.get(i));
+                if (added != next) {
+                    result.set(i);
+                    next = added;
+                }
+            }
+            if (next == version || current.compareAndSet(version, next)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Looks the batch up in one version, so the answers are consistent with each other
+     */
+    @Override
+    public BitSet containsAll(List<E> values) {
+        return current.get().containsAll(values);
+    }
+
+    /**
+     * Removes the whole batch with a single compare-and-set, see {@link #addAll(List)}
+     */
+    @Override
+    public BitSet removeAll(List<E> values) {
+        int[] order = Batch.sortedOrder(values, comparator());
+        while (true) {
+            PersistentAVLTree<E> version = current.get();
+            PersistentAVLTree<E> next = version;
+            BitSet result = new BitSet(values.size());
+            for (int i : order) {
+                PersistentAVLTree<E> removed = next.without(values.get(i));
+                if (removed != next) {
+                    result.set(i);
+                    next = removed;
+                }
+            }
+            if (next == version || current.compareAndSet(version, next)) {
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return current.get().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return current.get().isEmpty();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return current.get().contains(value);
+    }
+
+    @Override
+    public E first() {
+        return current.get().first();
+    }
+
+    @Override
+    public E last() {
+        return current.get().last();
+    }
+
+    @Override
+    public Comparator<E> comparator() {
+        return current.get().comparator();
+    }
+
+    @Override
+    public E floor(E value) {
+        return current.get().floor(value);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return current.get().ceiling(value);
+    }
+
+    @Override
+    public E lower(E value) {
+        return current.get().lower(value);
+    }
+
+    @Override
+    public E higher(E value) {
+        return current.get().higher(value);
+    }
+
+    @Override
+    public int rank(E value) {
+        return current.get().rank(value);
+    }
+
+    @Override
+    public E select(int index) {
+        return current.get().select(index);
+    }
+
+    /**
+     * Iterates over the version current at the moment of the call
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return current.get().iterator();
+    }
+
+    @Override
+    public Iterator<E> iterator(E from) {
+        return current.get().iterator(from);
+    }
+
+    /**
+     * Splits the current version, which later changes do not touch
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return current.get().spliterator();
+    }
+
+    @Override
+    public SetStats stats() {
+        return current.get().stats();
+    }
+
+    @Override
+    public String toString() {
+        return "COW" + current.get().inorderTraverse();
+    }
+}
@@ -0,0 +1,292 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+
+/**
+ * Decorator of a set which answers most {@code contains} misses without touching the set.
+ * It keeps a cuckoo filter of the keys: for every key a short fingerprint lies in one of two buckets
+ * of four fingerprints, so a lookup reads two longs. Unlike a Bloom filter a fingerprint can be removed,
+ * so the filter follows both {@link #add} and {@link #remove}. When the filter fills up,
+ * it is rebuilt twice larger from the keys of the set.
+ * <p>
+ * The filter hashes the keys by {@link Object#hashCode()}, so the keys that the set considers equal
+ * must have equal hash codes, as with the hash tables. The set must be changed only through the decorator.
+ */
+public class FilteredSet<E extends Comparable<E>> implements ISet<E> {
+
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    private static final int SLOTS = 4;
+    private static final int MAX_KICKS = 500;
+    private static final long LANES = 0x0001000100010001L;
+    private static final long HIGH = 0x8000800080008000L;
+
+    private final ISet<E> set;
+    private final double falsePositiveRate;
+    private final int fingerprintMask;
+    private final Random random = new Random(0);
+    //Корзина - четыре отпечатка по 16 бит, ноль означает пустое место
+    private long[] buckets;
+    private int count;
+    private long misses;
+    private long falsePositives;
+
+    public FilteredSet(ISet<E> set) {
+        this(set, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * @param falsePositiveRate target share of misses which pass the filter and reach the set;
+     *                          the fingerprint takes {@code log2(8 / rate)} bits, at most 16
+     * @throws IllegalArgumentException if the rate is not in [2^-13, 1)
+     */
+    public FilteredSet(ISet<E> set, double falsePositiveRate) {
+        if (set == null) {
+            throw new NullPointerException("set is null");
+        }
+        if (!(falsePositiveRate >= 1.0 / (1 << 13) && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("false positive rate is out of [2^-13, 1): " + falsePositiveRate);
+        }
+        this.set = set;
+        this.falsePositiveRate = falsePositiveRate;
+        //В корзине из четырёх мест промах совпадает с одним из восьми отпечатков
+        int bits = Math.max(4, (int) Math.ceil(Math.log(2 * SLOTS / falsePositiveRate) / Math.log(2)));
+        this.fingerprintMask = (1 << bits) - 1;
+        rebuild(set.size());
+    }
+
+    @Override
+    public int size() {
+        return set.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return set.isEmpty();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (!mayContain(value)) {
+            misses++;
+            return false;
+        }
+        if (set.contains(value)) {
+            return true;
+        }
+        misses++;
+        falsePositives++;
+        return false;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (!set.add(value)) {
+            return false;
+        }
+        insert(value);
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (!set.remove(value)) {
+            return false;
+        }
+        long h = hash(value);
+        int fingerprint = fingerprint(h);
+        int i1 = (int) h & (buckets.length - 1);
+        if (!delete(i1, fingerprint)) {
+            delete(alternate(i1, fingerprint), fingerprint);
+        }
+        count--;
+        return true;
+    }
+
+    /**
+     * Filters the batch, then asks the set only about the keys which passed
+     */
+    @Override
+    public BitSet containsAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        List<E> passed = new ArrayList<>();
+        int[] indices = new int[values.size()];
+        for (int i = 0; i < values.size(); i++) {
+            E value = Batch.checked(values.get(i));
+            if (mayContain(value)) {
+                indices[passed.size()] = i;
+                passed.add(value);
+            } else {
+                misses++;
+            }
+        }
+        BitSet found = set.containsAll(passed);
+        for (int i = 0; i < passed.size(); i++) {
+            if (found.get(i)) {
+                result.set(indices[i]);
+            } else {
+                misses++;
+                falsePositives++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the rate the filter was built for
+     */
+    public double falsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * @return share of the misses of {@code contains} which passed the filter, NaN before the first miss
+     */
+    public double observedFalsePositiveRate() {
+        return misses == 0 ? Double.NaN : (double) falsePositives / misses;
+    }
+
+    /**
+     * @return misses of {@code contains} so far, answered by the filter or by the set
+     */
+    public long misses() {
+        return misses;
+    }
+
+    private boolean mayContain(E value) {
+        long h = hash(value);
+        int fingerprint = fingerprint(h);
+        int i1 = (int) h & (buckets.length - 1);
+        long pattern = LANES * fingerprint;
+        return hasZeroLane(buckets[i1] ^ pattern) || hasZeroLane(buckets[alternate(i1, fingerprint)] ^ pattern);
+    }
+
+    private static boolean hasZeroLane(long x) {
+        return ((x - LANES) & ~x & HIGH) != 0;
+    }
+
+    private void insert(E value) {
+        long h = hash(value);
+        //Заполненный фильтр перестраиваем заранее: длинные цепочки вытеснений дороги
+        if ((count + 1) * 16L > buckets.length * SLOTS * 15L || !insert(fingerprint(h), (int) h)) {
+            rebuild(count + 1);
+        } else {
+            count++;
+        }
+    }
+
+    /**
+     * @return false if the filter is full; then one fingerprint is lost and the filter must be rebuilt
+     */
+    private boolean insert(int fingerprint, int h) {
+        int idx = h & (buckets.length - 1);
+        if (put(idx, fingerprint)) {
+            return true;
+        }
+        idx = alternate(idx, fingerprint);
+        if (put(idx, fingerprint)) {
+            return true;
+        }
+        //Вытесняем случайный отпечаток в его другую корзину
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            int shift = random.nextInt(SLOTS) * Short.SIZE;
+            int victim = (int) (buckets[idx] >>> shift) & 0xFFFF;
+            buckets[idx] = buckets[idx] & ~(0xFFFFL << shift) | (long) fingerprint << shift;
+            fingerprint = victim;
+            idx = alternate(idx, fingerprint);
+            if (put(idx, fingerprint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean put(int idx, int fingerprint) {
+        long bucket = buckets[idx];
+        for (int shift = 0; shift < Long.SIZE; shift += Short.SIZE) {
+            if ((bucket >>> shift & 0xFFFF) == 0) {
+                buckets[idx] = bucket | (long) fingerprint << shift;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean delete(int idx, int fingerprint) {
+        long bucket = buckets[idx];
+        for (int shift = 0; shift < Long.SIZE; shift += Short.SIZE) {
+            if ((bucket >>> shift & 0xFFFF) == fingerprint) {
+                buckets[idx] = bucket & ~(0xFFFFL << shift);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the filter of the keys of the set for the given number of keys, growing it until every key fits
+     */
+    private void rebuild(int expected) {
+        List<E> keys = new ArrayList<>(set.size());
+        set.spliterator().forEachRemaining(keys::add);
+        //После перестройки фильтр заполнен не больше чем наполовину
+        int capacity = Integer.highestOneBit(Math.max(1, expected / 2) * 2 - 1);
+        while (!fill(keys, capacity)) {
+            capacity <<= 1;
+        }
+    }
+
+    private boolean fill(List<E> keys, int capacity) {
+        buckets = new long[capacity];
+        count = 0;
+        for (E key : keys) {
+            long h = hash(key);
+            if (!insert(fingerprint(h), (int) h)) {
+                return false;
+            }
+            count++;
+        }
+        return true;
+    }
+
+    /**
+     * Both buckets are found from each other and the fingerprint alone, so a kicked out fingerprint can move
+     */
+    private int alternate(int idx, int fingerprint) {
+        return (idx ^ fingerprint * 0x5BD1E995) & (buckets.length - 1);
+    }
+
+    /**
+     * Zero marks an empty place, so a zero fingerprint becomes one
+     */
+    private int fingerprint(long h) {
+        int fingerprint = (int) (h >>> 32) & fingerprintMask;
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static long hash(Object value) {
+        long h = value.hashCode() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return set.spliterator();
+    }
+
+    @Override
+    public SetStats stats() {
+        return set.stats();
+    }
+
+    @Override
+    public String toString() {
+        return set.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package ru.mail.polis;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hash function of the keys of {@link ChainHashTable} and {@link OpenHashTable}.
+ * The tables have power of two capacities and take the low bits of the hash as the index,
+ * and {@link OpenHashTable} takes its probe step from the high bits, so all 32 bits should be well mixed.
+ * <p>
+ * The built-in strategies are seeded: a table created without a strategy draws a random seed,
+ * so the layout of its slots differs from run to run and from table to table.
+ * Only the built-in strategies can be saved in a {@link Snapshot}.
+ */
+@FunctionalInterface
+public interface HashStrategy<T> {
+
+    int hash(T value);
+
+    /**
+     * {@link Object#hashCode()} as it is. Small integers and similar strings differ
+     * only in the low bits, so this strategy is left as the baseline for comparison.
+     */
+    static <T> HashStrategy<T> identity() {
+        return new Mixer<>(Mixer.IDENTITY, 0);
+    }
+
+    /**
+     * {@link Object#hashCode()} mixed with a random seed by the finalizer of MurmurHash3.
+     * It spreads weak hash codes over all bits, but keys with equal hash codes still collide.
+     */
+    static <T> HashStrategy<T> murmur3() {
+        return murmur3(ThreadLocalRandom.current().nextLong());
+    }
+
+    static <T> HashStrategy<T> murmur3(long seed) {
+        return new Mixer<>(Mixer.MURMUR3, seed);
+    }
+
+    /**
+     * Seeded hash of the characters in the manner of wyhash: four characters per 64-bit word
+     * and a folded 128-bit multiplication per two words. Unlike {@link String#hashCode()},
+     * colliding strings cannot be chosen without knowing the seed, which resists hash flooding.
+     */
+    static HashStrategy<CharSequence> wyhash() {
+        return wyhash(ThreadLocalRandom.current().nextLong());
+    }
+
+    static HashStrategy<CharSequence> wyhash(long seed) {
+        return new Mixer<>(Mixer.WYHASH, seed);
+    }
+}
@@ -1,5 +1,11 @@
 package ru.mail.polis;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 public interface ISet<E extends Comparable<E>> {
 
     /**
@@ -36,4 +42,87 @@ public interface ISet<E extends Comparable<E>> {
      * @throws NullPointerException if the specified element is null
      */
     boolean remove(E value);
+
+    /**
+     * Adds the values as if by {@link #add} one by one in the order of the list.
+     * Implementations may do the work in another order, the result is the same.
+     *
+     * @param values elements to be added, a list with fast random access
+     * @return bit i is set if values.get(i) was added; of equal values only the first one is added
+     * @throws NullPointerException if one of the values is null, some of the others may be added then
+     */
+    default BitSet addAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            if (add(values.get(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param values elements whose presence in this set is to be tested, a list with fast random access
+     * @return bit i is set if this set contains values.get(i)
+     * @throws NullPointerException if one of the values is null
+     */
+    default BitSet containsAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            if (contains(values.get(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the values as if by {@link #remove} one by one in the order of the list.
+     * Implementations may do the work in another order, the result is the same.
+     *
+     * @param values elements to be removed, a list with fast random access
+     * @return bit i is set if values.get(i) was removed; of equal values only the first one is removed
+     * @throws NullPointerException if one of the values is null, some of the others may be removed then
+     */
+    default BitSet removeAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            if (remove(values.get(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a spliterator over the elements which reads the set itself and does not copy it.
+     * Sets that are not thread-safe must not be changed during the traversal.
+     *
+     * @return spliterator over the elements, in sorting ordering for sorted sets
+     */
+    Spliterator<E> spliterator();
+
+    /**
+     * @return sequential stream over the elements, see {@link #spliterator()}
+     */
+    default Stream<E> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return parallel stream over the elements, which splits the set by {@link #spliterator()}
+     */
+    default Stream<E> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Sets that are not thread-safe should be asked from the thread that changes them;
+     * the JMX bean of {@link SetStats#register} reads them from another thread and may see a torn state.
+     *
+     * @return snapshot of the counters of this set, only the size if the implementation keeps none
+     */
+    default SetStats stats() {
+        return new SetStats(getClass().getSimpleName(), size(), -1);
+    }
 }
@@ -1,8 +1,13 @@
 package ru.mail.polis;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
 
-public interface ISortedSet<E extends Comparable<E>> extends ISet<E> {
+public interface ISortedSet<E extends Comparable<E>> extends ISet<E>, Iterable<E> {
 
     /**
      * @return the first (lowest) element currently in this set
@@ -16,8 +21,168 @@ public interface ISortedSet<E extends Comparable<E>> extends ISet<E> {
      */
     E last();
 
+    /**
+     * @return the comparator used to order the elements, or null for the natural ordering
+     */
+    Comparator<E> comparator();
+
+    /**
+     * @return the greatest element less than or equal to the given one, or null if there is no such element
+     * @throws NullPointerException if the specified element is null
+     */
+    E floor(E value);
+
+    /**
+     * @return the least element greater than or equal to the given one, or null if there is no such element
+     * @throws NullPointerException if the specified element is null
+     */
+    E ceiling(E value);
+
+    /**
+     * @return the greatest element strictly less than the given one, or null if there is no such element
+     * @throws NullPointerException if the specified element is null
+     */
+    E lower(E value);
+
+    /**
+     * @return the least element strictly greater than the given one, or null if there is no such element
+     * @throws NullPointerException if the specified element is null
+     */
+    E higher(E value);
+
+    /**
+     * Works in O(n); implementations that keep subtree sizes answer in O(log n).
+     *
+     * @return the number of elements strictly less than the given one
+     * @throws NullPointerException if the specified element is null
+     */
+    default int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Comparator<E> comparator = comparator();
+        int rank = 0;
+        for (E curr : this) {
+            if ((comparator == null ? curr.compareTo(value) : comparator.compare(curr, value)) >= 0) {
+                break;
+            }
+            rank++;
+        }
+        return rank;
+    }
+
+    /**
+     * Works in O(n); implementations that keep subtree sizes answer in O(log n).
+     *
+     * @return the element with the given zero-based position in sorting ordering
+     * @throws IndexOutOfBoundsException if the index is negative or not less than {@link #size()}
+     */
+    default E select(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+        }
+        Iterator<E> iterator = iterator();
+        for (int i = 0; i < index; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
+
+    /**
+     * Adds the values one by one in ascending order, so neighbouring searches go through the same nodes,
+     * which are still in the cache. Nothing is added if one of the values is null.
+     */
+    @Override
+    default BitSet addAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        for (int i : Batch.sortedOrder(values, comparator())) {
+            if (add(values.get(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks the values up in ascending order, see {@link #addAll(List)}
+     */
+    @Override
+    default BitSet containsAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        for (int i : Batch.sortedOrder(values, comparator())) {
+            if (contains(values.get(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the values one by one in ascending order, see {@link #addAll(List)}.
+     * Nothing is removed if one of the values is null.
+     */
+    @Override
+    default BitSet removeAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        for (int i : Batch.sortedOrder(values, comparator())) {
+            if (remove(values.get(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a view of the elements from {@code from} inclusive to {@code to} exclusive.
+     * The view is backed by this set: changes of one are visible in the other.
+     * Adding an element out of the range to the view throws {@link IllegalArgumentException}.
+     *
+     * @throws IllegalArgumentException if {@code from} is greater than {@code to}
+     * @throws NullPointerException     if one of the bounds is null
+     */
+    default ISortedSet<E> subSet(E from, E to) {
+        return new SubSet<>(this, from, to);
+    }
+
+    /**
+     * Returns a lazy iterator over the elements in sorting ordering.
+     * The iterator does not copy the set. Unless the implementation says otherwise
+     * it is fail-fast: it throws {@link java.util.ConcurrentModificationException}
+     * if the set is structurally modified after the iterator was created.
+     *
+     * @return iterator over the elements in sorting ordering
+     */
+    @Override
+    Iterator<E> iterator();
+
+    /**
+     * Same as {@link #iterator()}, but starts from the least element greater than or equal to the given one
+     * without walking over the smaller ones.
+     *
+     * @throws NullPointerException if the specified element is null
+     */
+    Iterator<E> iterator(E from);
+
+    /**
+     * Splits by positions in sorting ordering: a split takes no time and every part knows its size.
+     * The traversal of a part starts from {@link #select(int)}, so implementations
+     * without subtree sizes split by the iterator instead.
+     *
+     * @return spliterator over the elements in sorting ordering
+     */
+    @Override
+    default Spliterator<E> spliterator() {
+        return new RankSpliterator<>(this, 0);
+    }
+
     /**
      * @return list of element in sorting ordering
      */
-    List<E> inorderTraverse();
+    default List<E> inorderTraverse() {
+        List<E> list = new ArrayList<E>(size());
+        for (E value : this) {
+            list.add(value);
+        }
+        return list;
+    }
 }
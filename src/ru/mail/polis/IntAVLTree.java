@@ -0,0 +1,492 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link AVLTree} specialized for int keys. Nodes are indices into parallel arrays
+ * as in {@link PooledRedBlackTree}, keys are compared with {@code <},
+ * so {@link #add(int)}, {@link #contains(int)} and {@link #remove(int)} neither box
+ * nor allocate except when the arrays grow.
+ * The boxed methods of {@link ISortedSet} delegate to the primitive ones,
+ * so the tree can stand in for {@code ISortedSet<Integer>}.
+ */
+public class IntAVLTree implements ISortedSet<Integer> {
+
+    //Нулевой индекс - отсутствующий узел с нулевыми высотой и размером
+    private static final int NIL = 0;
+    private static final int INITIAL_CAPACITY = 16;
+    //Высота АВЛ-дерева не больше 1.45 * log2(n + 2)
+    private static final int MAX_HEIGHT = 64;
+
+    private int[] keys;
+    private int[] left;
+    private int[] right;
+    private int[] height;
+    //Число узлов в поддереве, для rank и select
+    private int[] count;
+
+    private int root = NIL;
+    private int free = NIL;
+    private int allocated = NIL + 1;
+    private int size;
+    private int modCount;
+    private final Metrics metrics = Metrics.create();
+
+    public IntAVLTree() {
+        this.keys = new int[INITIAL_CAPACITY];
+        this.left = new int[INITIAL_CAPACITY];
+        this.right = new int[INITIAL_CAPACITY];
+        this.height = new int[INITIAL_CAPACITY];
+        this.count = new int[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    public boolean contains(int value) {
+        int curr = root;
+        int depth = 0;
+        while (curr != NIL) {
+            depth++;
+            if (value < keys[curr]) {
+                curr = left[curr];
+            } else if (value > keys[curr]) {
+                curr = right[curr];
+            } else {
+                if (Metrics.ENABLED) {
+                    metrics.probed(depth);
+                }
+                return true;
+            }
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(depth);
+        }
+        return false;
+    }
+
+    public boolean add(int value) {
+        int oldSize = size;
+        root = insert(root, value, 0);
+        if (size == oldSize) {
+            return false;
+        }
+        modCount++;
+        return true;
+    }
+
+    public boolean remove(int value) {
+        int oldSize = size;
+        root = delete(root, value);
+        if (size == oldSize) {
+            return false;
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Integer value) {
+        return contains(unbox(value));
+    }
+
+    @Override
+    public boolean add(Integer value) {
+        return add(unbox(value));
+    }
+
+    @Override
+    public boolean remove(Integer value) {
+        return remove(unbox(value));
+    }
+
+    /**
+     * @param depth number of nodes above the subtree
+     * @return new root of the subtree with the value inserted
+     */
+    private int insert(int node, int value, int depth) {
+        if (node == NIL) {
+            if (Metrics.ENABLED) {
+                metrics.probed(depth);
+            }
+            size++;
+            return allocate(value);
+        }
+        //Результат сначала в локальную переменную: вставка может заменить массивы
+        if (value < keys[node]) {
+            int child = insert(left[node], value, depth + 1);
+            left[node] = child;
+        } else if (value > keys[node]) {
+            int child = insert(right[node], value, depth + 1);
+            right[node] = child;
+        } else {
+            if (Metrics.ENABLED) {
+                metrics.probed(depth + 1);
+            }
+            return node;
+        }
+        return rebalance(node);
+    }
+
+    /**
+     * @return new root of the subtree with the value removed
+     */
+    private int delete(int node, int value) {
+        if (node == NIL) {
+            return NIL;
+        }
+        if (value < keys[node]) {
+            left[node] = delete(left[node], value);
+        } else if (value > keys[node]) {
+            right[node] = delete(right[node], value);
+        } else {
+            size--;
+            if (left[node] == NIL || right[node] == NIL) {
+                int child = left[node] == NIL ? right[node] : left[node];
+                release(node);
+                return child;
+            }
+            //Два сына - заменим ключ наименьшим из больших и удалим его узел
+            int next = right[node];
+            while (left[next] != NIL) {
+                next = left[next];
+            }
+            keys[node] = keys[next];
+            right[node] = deleteMin(right[node]);
+        }
+        return rebalance(node);
+    }
+
+    private int deleteMin(int node) {
+        if (left[node] == NIL) {
+            int child = right[node];
+            release(node);
+            return child;
+        }
+        left[node] = deleteMin(left[node]);
+        return rebalance(node);
+    }
+
+    /**
+     * @return new root of the subtree after at most two rotations
+     */
+    private int rebalance(int node) {
+        update(node);
+        int balance = balance(node);
+        //Перевешено влево...
+        if (balance == -2) {
+            //...а левый сын вправо
+            if (balance(left[node]) > 0) {
+                left[node] = rotateLeft(left[node]);
+            }
+            return rotateRight(node);
+        }
+        //Перевешено вправо...
+        if (balance == 2) {
+            //...а правый сын влево
+            if (balance(right[node]) < 0) {
+                right[node] = rotateRight(right[node]);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private int rotateLeft(int x) {
+        int y = right[x];
+        right[x] = left[y];
+        left[y] = x;
+        update(x);
+        update(y);
+        if (Metrics.ENABLED) {
+            metrics.rotated();
+        }
+        return y;
+    }
+
+    private int rotateRight(int x) {
+        int y = left[x];
+        left[x] = right[y];
+        right[y] = x;
+        update(x);
+        update(y);
+        if (Metrics.ENABLED) {
+            metrics.rotated();
+        }
+        return y;
+    }
+
+    private void update(int node) {
+        height[node] = 1 + Math.max(height[left[node]], height[right[node]]);
+        count[node] = 1 + count[left[node]] + count[right[node]];
+    }
+
+    private int balance(int node) {
+        return height[right[node]] - height[left[node]];
+    }
+
+    private int allocate(int value) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left[node];
+        } else {
+            if (allocated == keys.length) {
+                int capacity = keys.length << 1;
+                keys = Arrays.copyOf(keys, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                height = Arrays.copyOf(height, capacity);
+                count = Arrays.copyOf(count, capacity);
+            }
+            node = allocated++;
+        }
+        keys[node] = value;
+        left[node] = NIL;
+        right[node] = NIL;
+        height[node] = 1;
+        count[node] = 1;
+        return node;
+    }
+
+    private void release(int node) {
+        height[node] = 0;
+        count[node] = 0;
+        right[node] = NIL;
+        left[node] = free;
+        free = node;
+    }
+
+    @Override
+    public Integer first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        int curr = root;
+        while (left[curr] != NIL) {
+            curr = left[curr];
+        }
+        return keys[curr];
+    }
+
+    @Override
+    public Integer last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        int curr = root;
+        while (right[curr] != NIL) {
+            curr = right[curr];
+        }
+        return keys[curr];
+    }
+
+    /**
+     * @return null, keys are in the natural ordering
+     */
+    @Override
+    public Comparator<Integer> comparator() {
+        return null;
+    }
+
+    @Override
+    public Integer floor(Integer value) {
+        return keyOf(lowerNode(unbox(value), true));
+    }
+
+    @Override
+    public Integer ceiling(Integer value) {
+        return keyOf(higherNode(unbox(value), true));
+    }
+
+    @Override
+    public Integer lower(Integer value) {
+        return keyOf(lowerNode(unbox(value), false));
+    }
+
+    @Override
+    public Integer higher(Integer value) {
+        return keyOf(higherNode(unbox(value), false));
+    }
+
+    private int lowerNode(int value, boolean inclusive) {
+        int result = NIL;
+        int curr = root;
+        while (curr != NIL) {
+            if (keys[curr] < value || inclusive && keys[curr] == value) {
+                result = curr;
+                curr = right[curr];
+            } else {
+                curr = left[curr];
+            }
+        }
+        return result;
+    }
+
+    private int higherNode(int value, boolean inclusive) {
+        int result = NIL;
+        int curr = root;
+        while (curr != NIL) {
+            if (keys[curr] > value || inclusive && keys[curr] == value) {
+                result = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return result;
+    }
+
+    private Integer keyOf(int node) {
+        return node == NIL ? null : keys[node];
+    }
+
+    /**
+     * @return the number of keys strictly less than the given one, in O(log n)
+     */
+    public int rank(int value) {
+        int rank = 0;
+        int curr = root;
+        while (curr != NIL) {
+            if (keys[curr] < value) {
+                rank += count[left[curr]] + 1;
+                curr = right[curr];
+            } else {
+                curr = left[curr];
+            }
+        }
+        return rank;
+    }
+
+    @Override
+    public int rank(Integer value) {
+        return rank(unbox(value));
+    }
+
+    /**
+     * @return the key with the given zero-based position, in O(log n)
+     * @throws IndexOutOfBoundsException if the index is negative or not less than {@link #size()}
+     */
+    public int selectInt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        int curr = root;
+        while (true) {
+            int smaller = count[left[curr]];
+            if (index < smaller) {
+                curr = left[curr];
+            } else if (index == smaller) {
+                return keys[curr];
+            } else {
+                index -= smaller + 1;
+                curr = right[curr];
+            }
+        }
+    }
+
+    @Override
+    public Integer select(int index) {
+        return selectInt(index);
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        InorderIterator iterator = new InorderIterator();
+        iterator.pushLeft(root);
+        return iterator;
+    }
+
+    @Override
+    public Iterator<Integer> iterator(Integer from) {
+        int value = unbox(from);
+        InorderIterator iterator = new InorderIterator();
+        int curr = root;
+        while (curr != NIL) {
+            if (keys[curr] >= value) {
+                iterator.stack[iterator.depth++] = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return iterator;
+    }
+
+    /**
+     * @return all keys in ascending order without boxing
+     */
+    public int[] toArray() {
+        int[] result = new int[size];
+        InorderIterator iterator = new InorderIterator();
+        iterator.pushLeft(root);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = iterator.nextInt();
+        }
+        return result;
+    }
+
+    private class InorderIterator implements Iterator<Integer> {
+
+        private final int[] stack = new int[MAX_HEIGHT];
+        private int depth;
+        private final int expectedModCount = modCount;
+
+        private void pushLeft(int curr) {
+            while (curr != NIL) {
+                stack[depth++] = curr;
+                curr = left[curr];
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        int nextInt() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            int curr = stack[--depth];
+            pushLeft(right[curr]);
+            return keys[curr];
+        }
+
+        @Override
+        public Integer next() {
+            return nextInt();
+        }
+    }
+
+    private static int unbox(Integer value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return value;
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, height[root]);
+    }
+
+    @Override
+    public String toString() {
+        return "IntAVL" + Arrays.toString(toArray());
+    }
+}
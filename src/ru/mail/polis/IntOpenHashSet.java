@@ -0,0 +1,431 @@
+package ru.mail.polis;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link OpenHashTable} specialized for int keys: the keys lie in an int array,
+ * so {@link #add(int)}, {@link #contains(int)} and {@link #remove(int)} neither box
+ * nor call {@code compareTo} and allocate nothing except on resize.
+ * The boxed methods of {@link ISet} delegate to the primitive ones,
+ * so the set can stand in for {@code ISet<Integer>}.
+ */
+public class IntOpenHashSet implements ISet<Integer> {
+
+    private static final int INITIAL_CAPACITY = 8;
+    //Состояния ячеек: у примитивного ключа нет свободного значения для null и метки удаления
+    private static final byte FREE = 0;
+    private static final byte FULL = 1;
+    private static final byte DELETED = 2;
+
+    private int[] keys;
+    private byte[] states;
+    private int size;
+    //Занятые ячейки вместе с удалёнными
+    private int used;
+    private final Metrics metrics = Metrics.create();
+
+    public IntOpenHashSet() {
+        this.keys = new int[INITIAL_CAPACITY];
+        this.states = new byte[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int value) {
+        return indexOf(value, hash(value)) >= 0;
+    }
+
+    public boolean add(int value) {
+        return add(value, hash(value));
+    }
+
+    private boolean add(int value, int h) {
+        int mask = keys.length - 1;
+        int step = step(h, mask);
+        int idx = h & mask;
+        int deleted = -1;
+        int probe = 1;
+        while (states[idx] != FREE) {
+            if (states[idx] == DELETED) {
+                if (deleted < 0) {
+                    deleted = idx;
+                }
+            } else if (keys[idx] == value) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(probe);
+                }
+                return false;
+            }
+            idx = (idx + step) & mask;
+            probe++;
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(probe);
+        }
+        //Переиспользуем первую удалённую ячейку на пути
+        if (deleted >= 0) {
+            idx = deleted;
+        } else {
+            used++;
+        }
+        keys[idx] = value;
+        states[idx] = FULL;
+        size++;
+        if (used * 2 >= keys.length) {
+            resize();
+        }
+        return true;
+    }
+
+    public boolean remove(int value) {
+        int idx = indexOf(value, hash(value));
+        if (idx < 0) {
+            return false;
+        }
+        states[idx] = DELETED;
+        size--;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Integer value) {
+        return contains(unbox(value));
+    }
+
+    @Override
+    public boolean add(Integer value) {
+        return add(unbox(value));
+    }
+
+    @Override
+    public boolean remove(Integer value) {
+        return remove(unbox(value));
+    }
+
+    private int indexOf(int value, int h) {
+        int mask = keys.length - 1;
+        int step = step(h, mask);
+        int idx = h & mask;
+        int probe = 1;
+        while (states[idx] != FREE) {
+            if (states[idx] == FULL && keys[idx] == value) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(probe);
+                }
+                return idx;
+            }
+            idx = (idx + step) & mask;
+            probe++;
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(probe);
+        }
+        return -1;
+    }
+
+    /**
+     * Hashes the group first, then inserts it
+     *
+     * @return bit i is set if values[i] was added
+     */
+    public BitSet addAll(int[] values) {
+        BitSet result = new BitSet(values.length);
+        int[] hashes = new int[Batch.GROUP];
+        for (int from = 0; from < values.length; from += Batch.GROUP) {
+            int to = Math.min(from + Batch.GROUP, values.length);
+            for (int i = from; i < to; i++) {
+                hashes[i - from] = hash(values[i]);
+            }
+            for (int i = from; i < to; i++) {
+                if (add(values[i], hashes[i - from])) {
+                    result.set(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Probes the keys by groups of {@link Batch#GROUP}, see there
+     *
+     * @return bit i is set if the set contains values[i]
+     */
+    public BitSet containsAll(int[] values) {
+        BitSet result = new BitSet(values.length);
+        int[] hashes = new int[Batch.GROUP];
+        byte[] firstStates = new byte[Batch.GROUP];
+        int[] firstKeys = new int[Batch.GROUP];
+        for (int from = 0; from < values.length; from += Batch.GROUP) {
+            int to = Math.min(from + Batch.GROUP, values.length);
+            prefetch(values, from, to, hashes, firstStates, firstKeys);
+            for (int i = from; i < to; i++) {
+                int g = i - from;
+                //Ответ часто виден уже по первой ячейке
+                if (firstStates[g] == FULL && firstKeys[g] == values[i]
+                        || firstStates[g] != FREE && indexOf(values[i], hashes[g]) >= 0) {
+                    result.set(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #containsAll(int[])}: removal leaves a tombstone,
+     * so a slot which was free before the group stays free
+     *
+     * @return bit i is set if values[i] was removed
+     */
+    public BitSet removeAll(int[] values) {
+        BitSet result = new BitSet(values.length);
+        int[] hashes = new int[Batch.GROUP];
+        byte[] firstStates = new byte[Batch.GROUP];
+        int[] firstKeys = new int[Batch.GROUP];
+        for (int from = 0; from < values.length; from += Batch.GROUP) {
+            int to = Math.min(from + Batch.GROUP, values.length);
+            prefetch(values, from, to, hashes, firstStates, firstKeys);
+            for (int i = from; i < to; i++) {
+                int idx = firstStates[i - from] == FREE ? -1 : indexOf(values[i], hashes[i - from]);
+                if (idx >= 0) {
+                    states[idx] = DELETED;
+                    size--;
+                    result.set(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void prefetch(int[] values, int from, int to, int[] hashes, byte[] firstStates, int[] firstKeys) {
+        int mask = keys.length - 1;
+        for (int i = from; i < to; i++) {
+            int h = hash(values[i]);
+            hashes[i - from] = h;
+            firstStates[i - from] = states[h & mask];
+            firstKeys[i - from] = keys[h & mask];
+        }
+    }
+
+    @Override
+    public BitSet addAll(List<Integer> values) {
+        return addAll(unbox(values));
+    }
+
+    @Override
+    public BitSet containsAll(List<Integer> values) {
+        return containsAll(unbox(values));
+    }
+
+    @Override
+    public BitSet removeAll(List<Integer> values) {
+        return removeAll(unbox(values));
+    }
+
+    private static int[] unbox(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = unbox(values.get(i));
+        }
+        return result;
+    }
+
+    private static int hash(int value) {
+        return value ^ (value >>> 16);
+    }
+
+    /**
+     * Second hash is taken from the high bits and is always odd,
+     * so the probe sequence goes through the whole table
+     */
+    private static int step(int h, int mask) {
+        return (Integer.reverse(h) | 1) & mask;
+    }
+
+    private static int unbox(Integer value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return value;
+    }
+
+    /**
+     * Doubles the table, or rebuilds it with the same capacity
+     * if it is mostly filled with tombstones
+     */
+    private void resize() {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        int[] oldKeys = keys;
+        byte[] oldStates = states;
+        int capacity = size * 4 >= oldKeys.length ? oldKeys.length << 1 : oldKeys.length;
+        keys = new int[capacity];
+        states = new byte[capacity];
+        used = size;
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStates[i] != FULL) {
+                continue;
+            }
+            int h = hash(oldKeys[i]);
+            int step = step(h, mask);
+            int idx = h & mask;
+            while (states[idx] != FREE) {
+                idx = (idx + step) & mask;
+            }
+            keys[idx] = oldKeys[i];
+            states[idx] = FULL;
+        }
+        if (Metrics.ENABLED) {
+            metrics.rehashed();
+            metrics.paused(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Splits by ranges of slots of the current arrays, without boxing the keys
+     */
+    @Override
+    public Spliterator.OfInt spliterator() {
+        return new KeySpliterator(keys, states, 0, keys.length, size, Spliterator.SIZED);
+    }
+
+    /**
+     * @return sequential stream of the keys, use {@link IntStream#parallel()} to split it
+     */
+    public IntStream intStream() {
+        return StreamSupport.intStream(spliterator(), false);
+    }
+
+    private static final class KeySpliterator implements Spliterator.OfInt {
+
+        private final int[] keys;
+        private final byte[] states;
+        private int index;
+        private final int fence;
+        private long estimate;
+        private int characteristics;
+
+        KeySpliterator(int[] keys, byte[] states, int index, int fence, long estimate, int characteristics) {
+            this.keys = keys;
+            this.states = states;
+            this.index = index;
+            this.fence = fence;
+            this.estimate = estimate;
+            this.characteristics = characteristics;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (action == null) {
+                throw new NullPointerException("action is null");
+            }
+            while (index < fence) {
+                int idx = index++;
+                if (states[idx] == FULL) {
+                    action.accept(keys[idx]);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            if (action == null) {
+                throw new NullPointerException("action is null");
+            }
+            for (; index < fence; index++) {
+                if (states[index] == FULL) {
+                    action.accept(keys[index]);
+                }
+            }
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            int lo = index;
+            int mid = (lo + fence) >>> 1;
+            if (mid <= lo) {
+                return null;
+            }
+            index = mid;
+            characteristics &= ~Spliterator.SIZED;
+            estimate >>>= 1;
+            return new KeySpliterator(keys, states, lo, mid, estimate, characteristics);
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.NONNULL | characteristics;
+        }
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, -1);
+    }
+
+    /**
+     * Writes the slots as they are, tombstones included, so {@link #readSlots} needs no rehash
+     */
+    void writeSlots(Snapshot.Writer out) throws IOException {
+        out.ensure(3 * Integer.BYTES).putInt(keys.length).putInt(size).putInt(used);
+        out.array(states);
+        out.array(keys);
+    }
+
+    /**
+     * @throws IOException if the snapshot is truncated or corrupted
+     */
+    static IntOpenHashSet readSlots(Snapshot.Reader in) throws IOException {
+        IntOpenHashSet result = new IntOpenHashSet();
+        int capacity = in.capacity();
+        result.keys = new int[capacity];
+        result.states = new byte[capacity];
+        result.size = in.count();
+        result.used = in.count();
+        in.array(result.states);
+        in.array(result.keys);
+        for (int i = 0; i < capacity; i++) {
+            if (result.states[i] < FREE || result.states[i] > DELETED) {
+                throw new IOException("corrupted slot " + i + ": " + result.states[i]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("IntOHT{");
+        boolean first = true;
+        for (int i = 0; i < keys.length; i++) {
+            if (states[i] != FULL) {
+                continue;
+            }
+            if (!first) {
+                sb.append(", ");
+            }
+            sb.append(keys[i]);
+            first = false;
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator of a sorted set that can only be walked by its iterator.
+ * A split copies the next batch of elements into an array, the batches grow
+ * as in {@link Spliterators#spliteratorUnknownSize}; every part reports
+ * the comparator of the set, so the order is known for any comparator.
+ */
+final class IteratorSpliterator<E> extends Spliterators.AbstractSpliterator<E> {
+
+    private final Iterator<E> iterator;
+    private final Comparator<? super E> comparator;
+
+    /**
+     * @param size            exact size with {@link Spliterator#SIZED}, otherwise an estimate
+     * @param characteristics added to ORDERED, SORTED, DISTINCT and NONNULL
+     * @param comparator      ordering of the elements, null for the natural one
+     */
+    IteratorSpliterator(Iterator<E> iterator, long size, int characteristics, Comparator<? super E> comparator) {
+        super(size, Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL
+                | characteristics);
+        this.iterator = iterator;
+        this.comparator = comparator;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        if (action == null) {
+            throw new NullPointerException("action is null");
+        }
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+        if (action == null) {
+            throw new NullPointerException("action is null");
+        }
+        iterator.forEachRemaining(action);
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        //Массив отдаёт сплитератор, которому порядок известен только естественный, - оборачиваем его
+        Spliterator<E> batch = super.trySplit();
+        return batch == null ? null
+                : new IteratorSpliterator<>(Spliterators.iterator(batch), batch.estimateSize(), Spliterator.SIZED,
+                comparator);
+    }
+
+    @Override
+    public Comparator<? super E> getComparator() {
+        return comparator;
+    }
+}
@@ -0,0 +1,513 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe sorted set on a lock-free skip list (Herlihy, Shavit, "The Art of Multiprocessor Programming").
+ * <p>
+ * A node is removed by marking its links from the top level down: a link is replaced
+ * with the same successor wrapped into {@link Marked}. The mark on the bottom
+ * level is the moment of removal. Marked nodes are unlinked by writers that walk past them;
+ * readers never wait and write only to help unlink a removed node they have stopped at
+ * ({@link #last}, {@link #floor}, {@link #lower}), so readers do not block writers.
+ * Iterators are weakly consistent: they never throw {@link java.util.ConcurrentModificationException}
+ * and reflect some of the changes made after they were created.
+ */
+public class LockFreeSkipList<E extends Comparable<E>> implements ISortedSet<E> {
+
+    //Уровни нумеруются с нуля, нижний уровень содержит все элементы
+    private static final int MAX_LEVEL = 31;
+
+    static final class Node<E> {
+        final E value;
+        //Следующий узел на каждом уровне или Marked, если на этом уровне узел удалён
+        final AtomicReferenceArray<Object> next;
+
+        Node(E value, int topLevel) {
+            this.value = value;
+            this.next = new AtomicReferenceArray<>(topLevel + 1);
+        }
+
+        int topLevel() {
+            return next.length() - 1;
+        }
+
+        boolean isDeleted() {
+            return next.get(0) instanceof Marked;
+        }
+    }
+
+    /**
+     * Link of a removed node: the successor wrapped so that CAS on the link fails
+     */
+    static final class Marked<E> {
+        final Node<E> node;
+
+        Marked(Node<E> node) {
+            this.node = node;
+        }
+    }
+
+    private final Node<E> head = new Node<>(null, MAX_LEVEL);
+    private final Node<E> tail = new Node<>(null, 0);
+    private final LongAdder size = new LongAdder();
+    private final Comparator<E> comparator;
+    //Выше этого уровня узлов нет, поиск можно начинать с него
+    private final AtomicInteger levels = new AtomicInteger();
+    private final Metrics metrics = Metrics.create();
+
+    public LockFreeSkipList() {
+        this(null);
+    }
+
+    public LockFreeSkipList(Comparator<E> comparator) {
+        this.comparator = comparator;
+        for (int i = 0; i <= MAX_LEVEL; i++) {
+            head.next.set(i, tail);
+        }
+    }
+
+    /**
+     * Builds a skip list from values in ascending order in linear time,
+     * appending every node at the tail of its levels.
+     * Equal neighbours are added once.
+     * @throws IllegalArgumentException if the values are not sorted
+     */
+    public static <E extends Comparable<E>> LockFreeSkipList<E> fromSorted(Iterable<E> values) {
+        return fromSorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> LockFreeSkipList<E> fromSorted(Iterable<E> values,
+                                                                           Comparator<E> comparator) {
+        LockFreeSkipList<E> list = new LockFreeSkipList<>(comparator);
+        list.build(BulkLoad.distinctSorted(values, comparator));
+        return list;
+    }
+
+    /**
+     * Sorts the values and builds a skip list from them, duplicates are added once
+     */
+    public static <E extends Comparable<E>> LockFreeSkipList<E> fromUnsorted(Collection<E> values) {
+        return fromUnsorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> LockFreeSkipList<E> fromUnsorted(Collection<E> values,
+                                                                             Comparator<E> comparator) {
+        LockFreeSkipList<E> list = new LockFreeSkipList<>(comparator);
+        list.build(BulkLoad.distinctUnsorted(values, comparator));
+        return list;
+    }
+
+    private void build(List<E> values) {
+        Node<E>[] last = newLevels();
+        Arrays.fill(last, head);
+        int top = 0;
+        for (E value : values) {
+            int topLevel = randomLevel();
+            Node<E> node = new Node<>(value, topLevel);
+            for (int level = 0; level <= topLevel; level++) {
+                node.next.set(level, tail);
+                last[level].next.set(level, node);
+                last[level] = node;
+            }
+            top = Math.max(top, topLevel);
+        }
+        levels.set(top);
+        size.add(values.size());
+    }
+
+    @Override
+    public E first() {
+        Node<E> curr = firstNode();
+        if (curr == tail) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return curr.value;
+    }
+
+    @Override
+    public E last() {
+        while (true) {
+            Node<E> pred = head;
+            for (int level = levels.get(); level > 0; level--) {
+                Node<E> curr;
+                while ((curr = next(pred, level)) != tail) {
+                    pred = curr;
+                }
+            }
+            //Спустились к удалённому узлу - помогаем его вычистить, иначе снова придём к нему же
+            if (pred != head && pred.isDeleted()) {
+                find(pred.value, newLevels(), newLevels(), levels.get());
+                continue;
+            }
+            Node<E> last = null;
+            for (Node<E> curr = pred; curr != tail; curr = next(curr, 0)) {
+                if (curr != head && !curr.isDeleted()) {
+                    last = curr;
+                }
+            }
+            if (last != null) {
+                return last.value;
+            }
+            if (firstNode() == tail) {
+                throw new NoSuchElementException("set is empty, no last element");
+            }
+        }
+    }
+
+    private Node<E> firstNode() {
+        Node<E> curr = next(head, 0);
+        while (curr != tail && curr.isDeleted()) {
+            curr = next(curr, 0);
+        }
+        return curr;
+    }
+
+    @Override
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E floor(E value) {
+        return lowerValue(value, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return valueOf(higherNode(value, true));
+    }
+
+    @Override
+    public E lower(E value) {
+        return lowerValue(value, false);
+    }
+
+    @Override
+    public E higher(E value) {
+        return valueOf(higherNode(value, false));
+    }
+
+    /**
+     * @return the greatest live value less than (or equal to, if inclusive) the given one
+     */
+    private E lowerValue(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        while (true) {
+            Node<E> pred = head;
+            for (int level = levels.get(); level >= 0; level--) {
+                Node<E> curr;
+                while ((curr = next(pred, level)) != tail) {
+                    int cmp = compare(curr.value, value);
+                    if (cmp > 0 || cmp == 0 && !inclusive) {
+                        break;
+                    }
+                    pred = curr;
+                }
+            }
+            if (pred == head) {
+                return null;
+            }
+            if (!pred.isDeleted()) {
+                return pred.value;
+            }
+            //Предшественника удалили, пока мы к нему шли - помогаем его вычистить и ищем заново
+            find(value, newLevels(), newLevels(), levels.get());
+        }
+    }
+
+    /**
+     * @return the least live node greater than (or equal to, if inclusive) the value, or tail
+     */
+    @SuppressWarnings("unchecked")
+    private Node<E> higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> pred = head;
+        Node<E> curr = null;
+        for (int level = levels.get(); level >= 0; level--) {
+            curr = next(pred, level);
+            while (curr != tail) {
+                Object link = curr.next.get(level);
+                if (link instanceof Marked) {
+                    curr = ((Marked<E>) link).node;
+                    continue;
+                }
+                int cmp = compare(curr.value, value);
+                if (cmp > 0 || cmp == 0 && inclusive) {
+                    break;
+                }
+                pred = curr;
+                curr = (Node<E>) link;
+            }
+        }
+        return curr;
+    }
+
+    private E valueOf(Node<E> node) {
+        return node == tail ? null : node.value;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new WeakIterator(firstNode());
+    }
+
+    @Override
+    public Iterator<E> iterator(E from) {
+        return new WeakIterator(higherNode(from, true));
+    }
+
+    private class WeakIterator implements Iterator<E> {
+
+        private Node<E> next;
+
+        WeakIterator(Node<E> first) {
+            next = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != tail;
+        }
+
+        @Override
+        public E next() {
+            if (next == tail) {
+                throw new NoSuchElementException();
+            }
+            E value = next.value;
+            Node<E> curr = LockFreeSkipList.this.next(next, 0);
+            while (curr != tail && curr.isDeleted()) {
+                curr = LockFreeSkipList.this.next(curr, 0);
+            }
+            next = curr;
+            return value;
+        }
+    }
+
+    @Override
+    public int size() {
+        long sum = size.sum();
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(sum, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstNode() == tail;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> pred = head;
+        Node<E> curr = null;
+        int probe = 0;
+        for (int level = levels.get(); level >= 0; level--) {
+            curr = next(pred, level);
+            while (curr != tail) {
+                Object link = curr.next.get(level);
+                //Удалённые узлы просто проходим, не вычищая
+                if (link instanceof Marked) {
+                    curr = ((Marked<E>) link).node;
+                    continue;
+                }
+                probe++;
+                if (compare(curr.value, value) >= 0) {
+                    break;
+                }
+                pred = curr;
+                curr = (Node<E>) link;
+            }
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(probe);
+        }
+        return curr != tail && compare(curr.value, value) == 0;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int topLevel = randomLevel();
+        Node<E>[] preds = newLevels();
+        Node<E>[] succs = newLevels();
+        while (true) {
+            if (find(value, preds, succs, Math.max(levels.get(), topLevel))) {
+                return false;
+            }
+            Node<E> node = new Node<>(value, topLevel);
+            for (int level = 0; level <= topLevel; level++) {
+                node.next.set(level, succs[level]);
+            }
+            //Вставка на нижнем уровне - момент добавления элемента
+            if (!preds[0].next.compareAndSet(0, succs[0], node)) {
+                continue;
+            }
+            size.increment();
+            raiseLevels(topLevel);
+            for (int level = 1; level <= topLevel; level++) {
+                while (true) {
+                    Node<E> succ = succs[level];
+                    Object link = node.next.get(level);
+                    //Узел уже удаляют - выше не поднимаем
+                    if (link instanceof Marked || link != succ && !node.next.compareAndSet(level, link, succ)) {
+                        return true;
+                    }
+                    if (preds[level].next.compareAndSet(level, succ, node)) {
+                        break;
+                    }
+                    find(value, preds, succs, Math.max(levels.get(), topLevel));
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E>[] preds = newLevels();
+        Node<E>[] succs = newLevels();
+        if (!find(value, preds, succs, levels.get())) {
+            return false;
+        }
+        Node<E> node = succs[0];
+        //Помечаем ссылки сверху вниз, кроме нижней
+        for (int level = node.topLevel(); level > 0; level--) {
+            Object link;
+            do {
+                link = node.next.get(level);
+            } while (!(link instanceof Marked) && !node.next.compareAndSet(level, link, new Marked<>((Node<E>) link)));
+        }
+        while (true) {
+            Object link = node.next.get(0);
+            if (link instanceof Marked) {
+                //Элемент удалил другой поток
+                return false;
+            }
+            if (node.next.compareAndSet(0, link, new Marked<>((Node<E>) link))) {
+                size.decrement();
+                //Вычищаем узел из всех уровней
+                find(value, preds, succs, levels.get());
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Fills predecessors and successors of the value on levels up to {@code fromLevel},
+     * unlinking marked nodes on the way
+     * @return true if the value is in the set
+     */
+    @SuppressWarnings("unchecked")
+    private boolean find(E value, Node<E>[] preds, Node<E>[] succs, int fromLevel) {
+        retry:
+        while (true) {
+            Node<E> pred = head;
+            Node<E> curr = null;
+            for (int level = fromLevel; level >= 0; level--) {
+                curr = next(pred, level);
+                while (curr != tail) {
+                    Object link = curr.next.get(level);
+                    if (link instanceof Marked) {
+                        Node<E> succ = ((Marked<E>) link).node;
+                        if (!pred.next.compareAndSet(level, curr, succ)) {
+                            continue retry;
+                        }
+                        curr = succ;
+                        continue;
+                    }
+                    if (compare(curr.value, value) >= 0) {
+                        break;
+                    }
+                    pred = curr;
+                    curr = (Node<E>) link;
+                }
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+            return curr != tail && compare(curr.value, value) == 0;
+        }
+    }
+
+    /**
+     * @return array with a place for a node on every level
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> Node<E>[] newLevels() {
+        return (Node<E>[]) new Node<?>[MAX_LEVEL + 1];
+    }
+
+    /**
+     * @return next node on the level, whether the link is marked or not
+     */
+    @SuppressWarnings("unchecked")
+    private Node<E> next(Node<E> node, int level) {
+        Object link = node.next.get(level);
+        return link instanceof Marked ? ((Marked<E>) link).node : (Node<E>) link;
+    }
+
+    private void raiseLevels(int level) {
+        int curr;
+        while ((curr = levels.get()) < level && !levels.compareAndSet(curr, level)) {
+            //Повторяем, пока уровень не станет не меньше нужного
+        }
+    }
+
+    /**
+     * @return level with the geometric distribution: level k with probability 2^-(k+1)
+     */
+    private static int randomLevel() {
+        return Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt() | (1 << MAX_LEVEL));
+    }
+
+    private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * Split by the weakly consistent iterator in growing batches, the size is not known in advance
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new IteratorSpliterator<>(iterator(), Long.MAX_VALUE, Spliterator.CONCURRENT, comparator);
+    }
+
+    /**
+     * Probes count the nodes compared by {@code contains}; the height is the number of levels in use
+     */
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, levels.get() + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "SkipList" + inorderTraverse();
+    }
+}
@@ -0,0 +1,532 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link PooledRedBlackTree} specialized for long keys: the keys lie in a long array
+ * and are compared with {@code <}, so {@link #add(long)}, {@link #contains(long)}
+ * and {@link #remove(long)} neither box nor allocate except when the arrays grow.
+ * The boxed methods of {@link ISortedSet} delegate to the primitive ones,
+ * so the tree can stand in for {@code ISortedSet<Long>}.
+ */
+public class LongRedBlackTree implements ISortedSet<Long> {
+
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+    //Нулевой индекс - отсутствующий узел, он всегда чёрный
+    private static final int NIL = 0;
+    //Фиктивный корень для спуска сверху вниз
+    private static final int HEAD = 1;
+    private static final int INITIAL_CAPACITY = 16;
+    //Высота красно-чёрного дерева не больше 2 * log2(n + 1)
+    private static final int MAX_HEIGHT = 64;
+
+    private long[] keys;
+    private int[] left;
+    private int[] right;
+    private boolean[] red;
+    //Число узлов в поддереве, для rank и select; у NIL всегда ноль
+    private int[] count;
+
+    private int root = NIL;
+    private int free = NIL;
+    private int allocated = HEAD + 1;
+    private int size;
+    private int modCount;
+    private final Metrics metrics = Metrics.create();
+
+    public LongRedBlackTree() {
+        this.keys = new long[INITIAL_CAPACITY];
+        this.left = new int[INITIAL_CAPACITY];
+        this.right = new int[INITIAL_CAPACITY];
+        this.red = new boolean[INITIAL_CAPACITY];
+        this.count = new int[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    public boolean contains(long value) {
+        int curr = root;
+        int depth = 0;
+        while (curr != NIL) {
+            depth++;
+            if (value < keys[curr]) {
+                curr = left[curr];
+            } else if (value > keys[curr]) {
+                curr = right[curr];
+            } else {
+                if (Metrics.ENABLED) {
+                    metrics.probed(depth);
+                }
+                return true;
+            }
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(depth);
+        }
+        return false;
+    }
+
+    public boolean add(long value) {
+        boolean added = false;
+        if (root == NIL) {
+            root = allocate(value);
+            added = true;
+        } else {
+            right[HEAD] = root;
+            //t - прадед, g - дед, p - отец, q - текущий узел
+            int t = HEAD;
+            int g = NIL;
+            int p = NIL;
+            int q = root;
+            int dir = LEFT;
+            int last = LEFT;
+            int depth = 0;
+            while (true) {
+                if (q == NIL) {
+                    q = allocate(value);
+                    setChild(p, dir, q);
+                    added = true;
+                } else if (red[left[q]] && red[right[q]]) {
+                    red[q] = true;
+                    red[left[q]] = false;
+                    red[right[q]] = false;
+                }
+                if (red[q] && red[p]) {
+                    int dir2 = right[t] == g ? RIGHT : LEFT;
+                    if (q == child(p, last)) {
+                        setChild(t, dir2, rotate(g, 1 - last));
+                    } else {
+                        setChild(t, dir2, rotateTwice(g, 1 - last));
+                    }
+                }
+                depth++;
+                if (keys[q] == value) {
+                    break;
+                }
+                last = dir;
+                dir = keys[q] < value ? RIGHT : LEFT;
+                if (g != NIL) {
+                    t = g;
+                }
+                g = p;
+                p = q;
+                q = child(q, dir);
+            }
+            root = right[HEAD];
+            right[HEAD] = NIL;
+            if (Metrics.ENABLED) {
+                metrics.probed(depth);
+            }
+            if (added) {
+                recount(root, value);
+            }
+        }
+        red[root] = false;
+        if (added) {
+            size++;
+            modCount++;
+        }
+        return added;
+    }
+
+    public boolean remove(long value) {
+        if (root == NIL) {
+            return false;
+        }
+        right[HEAD] = root;
+        //g - дед, p - отец, q - текущий узел, f - найденный узел
+        int g = NIL;
+        int p = NIL;
+        int q = HEAD;
+        int f = NIL;
+        int dir = RIGHT;
+        while (child(q, dir) != NIL) {
+            int last = dir;
+            g = p;
+            p = q;
+            q = child(q, dir);
+            dir = keys[q] < value ? RIGHT : LEFT;
+            if (keys[q] == value) {
+                f = q;
+            }
+            if (red[q] || red[child(q, dir)]) {
+                continue;
+            }
+            if (red[child(q, 1 - dir)]) {
+                int r = rotate(q, dir);
+                setChild(p, last, r);
+                p = r;
+            } else {
+                int s = child(p, 1 - last);
+                if (s == NIL) {
+                    continue;
+                }
+                if (!red[left[s]] && !red[right[s]]) {
+                    red[p] = false;
+                    red[s] = true;
+                    red[q] = true;
+                } else {
+                    int dir2 = right[g] == p ? RIGHT : LEFT;
+                    if (red[child(s, last)]) {
+                        setChild(g, dir2, rotateTwice(p, last));
+                    } else {
+                        setChild(g, dir2, rotate(p, last));
+                    }
+                    int top = child(g, dir2);
+                    red[q] = true;
+                    red[top] = true;
+                    red[left[top]] = false;
+                    red[right[top]] = false;
+                }
+            }
+        }
+        if (f != NIL) {
+            long removed = keys[q];
+            for (int curr = right[HEAD]; curr != q; ) {
+                count[curr]--;
+                curr = keys[curr] < removed ? right[curr] : left[curr];
+            }
+            keys[f] = keys[q];
+            setChild(p, right[p] == q ? RIGHT : LEFT, left[q] == NIL ? right[q] : left[q]);
+            release(q);
+            size--;
+            modCount++;
+        }
+        root = right[HEAD];
+        right[HEAD] = NIL;
+        red[root] = false;
+        return f != NIL;
+    }
+
+    @Override
+    public boolean contains(Long value) {
+        return contains(unbox(value));
+    }
+
+    @Override
+    public boolean add(Long value) {
+        return add(unbox(value));
+    }
+
+    @Override
+    public boolean remove(Long value) {
+        return remove(unbox(value));
+    }
+
+    @Override
+    public Long first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        int curr = root;
+        while (left[curr] != NIL) {
+            curr = left[curr];
+        }
+        return keys[curr];
+    }
+
+    @Override
+    public Long last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        int curr = root;
+        while (right[curr] != NIL) {
+            curr = right[curr];
+        }
+        return keys[curr];
+    }
+
+    /**
+     * @return null, keys are in the natural ordering
+     */
+    @Override
+    public Comparator<Long> comparator() {
+        return null;
+    }
+
+    @Override
+    public Long floor(Long value) {
+        return keyOf(lowerNode(unbox(value), true));
+    }
+
+    @Override
+    public Long ceiling(Long value) {
+        return keyOf(higherNode(unbox(value), true));
+    }
+
+    @Override
+    public Long lower(Long value) {
+        return keyOf(lowerNode(unbox(value), false));
+    }
+
+    @Override
+    public Long higher(Long value) {
+        return keyOf(higherNode(unbox(value), false));
+    }
+
+    private int lowerNode(long value, boolean inclusive) {
+        int result = NIL;
+        int curr = root;
+        while (curr != NIL) {
+            if (keys[curr] < value || inclusive && keys[curr] == value) {
+                result = curr;
+                curr = right[curr];
+            } else {
+                curr = left[curr];
+            }
+        }
+        return result;
+    }
+
+    private int higherNode(long value, boolean inclusive) {
+        int result = NIL;
+        int curr = root;
+        while (curr != NIL) {
+            if (keys[curr] > value || inclusive && keys[curr] == value) {
+                result = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return result;
+    }
+
+    private Long keyOf(int node) {
+        return node == NIL ? null : keys[node];
+    }
+
+    /**
+     * @return the number of keys strictly less than the given one, in O(log n)
+     */
+    public int rank(long value) {
+        int rank = 0;
+        int curr = root;
+        while (curr != NIL) {
+            if (keys[curr] < value) {
+                rank += count[left[curr]] + 1;
+                curr = right[curr];
+            } else {
+                curr = left[curr];
+            }
+        }
+        return rank;
+    }
+
+    @Override
+    public int rank(Long value) {
+        return rank(unbox(value));
+    }
+
+    /**
+     * @return the key with the given zero-based position, in O(log n)
+     * @throws IndexOutOfBoundsException if the index is negative or not less than {@link #size()}
+     */
+    public long selectLong(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        int curr = root;
+        while (true) {
+            int smaller = count[left[curr]];
+            if (index < smaller) {
+                curr = left[curr];
+            } else if (index == smaller) {
+                return keys[curr];
+            } else {
+                index -= smaller + 1;
+                curr = right[curr];
+            }
+        }
+    }
+
+    @Override
+    public Long select(int index) {
+        return selectLong(index);
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        InorderIterator iterator = new InorderIterator();
+        iterator.pushLeft(root);
+        return iterator;
+    }
+
+    @Override
+    public Iterator<Long> iterator(Long from) {
+        long value = unbox(from);
+        InorderIterator iterator = new InorderIterator();
+        int curr = root;
+        while (curr != NIL) {
+            if (keys[curr] >= value) {
+                iterator.stack[iterator.depth++] = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return iterator;
+    }
+
+    /**
+     * @return all keys in ascending order without boxing
+     */
+    public long[] toArray() {
+        long[] result = new long[size];
+        InorderIterator iterator = new InorderIterator();
+        iterator.pushLeft(root);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = iterator.nextLong();
+        }
+        return result;
+    }
+
+    private class InorderIterator implements Iterator<Long> {
+
+        private final int[] stack = new int[MAX_HEIGHT];
+        private int depth;
+        private final int expectedModCount = modCount;
+
+        private void pushLeft(int curr) {
+            while (curr != NIL) {
+                stack[depth++] = curr;
+                curr = left[curr];
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        long nextLong() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            int curr = stack[--depth];
+            pushLeft(right[curr]);
+            return keys[curr];
+        }
+
+        @Override
+        public Long next() {
+            return nextLong();
+        }
+    }
+
+    private int allocate(long value) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left[node];
+        } else {
+            if (allocated == keys.length) {
+                int capacity = keys.length << 1;
+                keys = Arrays.copyOf(keys, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                red = Arrays.copyOf(red, capacity);
+                count = Arrays.copyOf(count, capacity);
+            }
+            node = allocated++;
+        }
+        keys[node] = value;
+        left[node] = NIL;
+        right[node] = NIL;
+        red[node] = true;
+        count[node] = 1;
+        return node;
+    }
+
+    private void release(int node) {
+        red[node] = false;
+        count[node] = 0;
+        right[node] = NIL;
+        left[node] = free;
+        free = node;
+    }
+
+    /**
+     * Recomputes subtree sizes on the path from the node down to the value, bottom-up
+     */
+    private void recount(int node, long value) {
+        if (keys[node] != value) {
+            recount(keys[node] < value ? right[node] : left[node], value);
+        }
+        update(node);
+    }
+
+    private void update(int node) {
+        count[node] = 1 + count[left[node]] + count[right[node]];
+    }
+
+    private int child(int node, int dir) {
+        return dir == LEFT ? left[node] : right[node];
+    }
+
+    private void setChild(int node, int dir, int child) {
+        if (dir == LEFT) {
+            left[node] = child;
+        } else {
+            right[node] = child;
+        }
+    }
+
+    private int rotate(int node, int dir) {
+        int save = child(node, 1 - dir);
+        setChild(node, 1 - dir, child(save, dir));
+        setChild(save, dir, node);
+        red[node] = true;
+        red[save] = false;
+        update(node);
+        update(save);
+        modCount++;
+        if (Metrics.ENABLED) {
+            metrics.rotated();
+        }
+        return save;
+    }
+
+    private int rotateTwice(int node, int dir) {
+        setChild(node, 1 - dir, rotate(child(node, 1 - dir), 1 - dir));
+        return rotate(node, dir);
+    }
+
+    private static long unbox(Long value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return value;
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, height(root));
+    }
+
+    private int height(int node) {
+        return node == NIL ? 0 : 1 + Math.max(height(left[node]), height(right[node]));
+    }
+
+    @Override
+    public String toString() {
+        return "LongRBT" + Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,530 @@
+package ru.mail.polis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Spliterator;
+
+/**
+ * {@link OpenHashTable} of lowercase latin strings that lives off-heap in two memory-mapped files
+ * of a directory: {@code slots} with the header and the slot array, {@code keys} with the packed keys.
+ * The heap holds only a few objects whatever the size, and {@link #open(Path)} of an existing directory
+ * maps the files instead of rebuilding the table.
+ * <p>
+ * Double hashing, power of two capacity starting from 8 and rehash at load factor 1/2 are the same
+ * as in {@link OpenHashTable}. A slot is a long: the hash of the key in the high half and the offset of its
+ * record in {@code keys} in the low half, so probing compares key bytes only when hashes are equal
+ * and rehashing never reads the keys. Bytes of removed keys are not reclaimed.
+ * <p>
+ * Changes are written straight into the mapped memory; {@link #flush()} forces them to the disk,
+ * {@link #close()} flushes too. The table is not thread-safe.
+ */
+public class MappedOpenHashTable implements ISet<String>, Closeable {
+
+    private static final int MAGIC = 0x4F485431; //"OHT1"
+    private static final int VERSION = 1;
+    //Заголовок: magic, version, capacity, size, used, резерв, конец ключей
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 12;
+    private static final int USED_OFFSET = 16;
+    private static final int KEYS_END_OFFSET = 24;
+    private static final int HEADER = 32;
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final long INITIAL_KEYS_LENGTH = 1 << 16;
+    //Свободная ячейка и метка удалённого: у обеих нулевое смещение, которого нет у живых ключей
+    private static final long FREE = 0;
+    private static final long DELETED = 0xFFFFFFFF_00000000L;
+    //Записи ключей выровнены на 4 байта, в ячейке хранится смещение в таких единицах
+    private static final int ALIGN = 4;
+    private static final long MAX_KEYS_LENGTH = (1L << 32) * ALIGN;
+    //Длина упакованного ключа хранится в двух байтах
+    private static final int MAX_PACKED_LENGTH = 0xFFFF;
+
+    private final Path dir;
+    private Region slots;
+    private final Region keys;
+    private int capacity;
+    private int size;
+    private int used;
+    private long keysEnd;
+    private final Metrics metrics = Metrics.create();
+
+    private MappedOpenHashTable(Path dir, Region slots, Region keys) {
+        this.dir = dir;
+        this.slots = slots;
+        this.keys = keys;
+    }
+
+    /**
+     * Maps the table stored in the directory, or creates an empty one there
+     *
+     * @throws IOException if the files can not be mapped or do not hold a table
+     */
+    public static MappedOpenHashTable open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Path slotsPath = dir.resolve("slots");
+        boolean exists = Files.exists(slotsPath) && Files.size(slotsPath) > 0;
+        Region slots = new Region(slotsPath, HEADER + (long) INITIAL_CAPACITY * Long.BYTES);
+        Region keys = new Region(dir.resolve("keys"), INITIAL_KEYS_LENGTH);
+        MappedOpenHashTable table = new MappedOpenHashTable(dir, slots, keys);
+        if (exists) {
+            table.readHeader();
+        } else {
+            table.capacity = INITIAL_CAPACITY;
+            //Нулевое смещение зарезервировано под пустые ячейки
+            table.keysEnd = ALIGN;
+            table.writeHeader(slots);
+        }
+        return table;
+    }
+
+    private void readHeader() throws IOException {
+        if (slots.getInt(0) != MAGIC) {
+            throw new IOException("not a table: " + dir);
+        }
+        if (slots.getInt(4) != VERSION) {
+            throw new IOException("unsupported version " + slots.getInt(4) + ": " + dir);
+        }
+        capacity = slots.getInt(CAPACITY_OFFSET);
+        size = slots.getInt(SIZE_OFFSET);
+        used = slots.getInt(USED_OFFSET);
+        keysEnd = slots.getLong(KEYS_END_OFFSET);
+        if (Integer.bitCount(capacity) != 1 || slots.length() < HEADER + (long) capacity * Long.BYTES
+                || keysEnd > keys.length()) {
+            throw new IOException("corrupted table: " + dir);
+        }
+    }
+
+    private void writeHeader(Region region) {
+        region.putInt(0, MAGIC);
+        region.putInt(4, VERSION);
+        region.putInt(CAPACITY_OFFSET, capacity);
+        region.putInt(SIZE_OFFSET, size);
+        region.putInt(USED_OFFSET, used);
+        region.putLong(KEYS_END_OFFSET, keysEnd);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(String value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return PackedLowercase.isPackable(value) && indexOf(PackedLowercase.pack(value), hash(value)) >= 0;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string contains not a lowercase latin letter
+     */
+    @Override
+    public boolean add(String value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        byte[] packed = PackedLowercase.pack(value);
+        int h = hash(value);
+        int mask = capacity - 1;
+        int step = step(h, mask);
+        int idx = h & mask;
+        int deleted = -1;
+        int probe = 1;
+        long slot;
+        while ((slot = slot(idx)) != FREE) {
+            if (slot == DELETED) {
+                if (deleted < 0) {
+                    deleted = idx;
+                }
+            } else if ((int) (slot >>> 32) == h && matches(slot, packed)) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(probe);
+                }
+                return false;
+            }
+            idx = (idx + step) & mask;
+            probe++;
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(probe);
+        }
+        //Сначала пишем ключ: если файл ключей не удалось расширить, таблица остаётся прежней
+        long offset = append(packed);
+        //Переиспользуем первую удалённую ячейку на пути
+        if (deleted >= 0) {
+            idx = deleted;
+        } else {
+            used++;
+        }
+        setSlot(idx, (long) h << 32 | offset / ALIGN);
+        size++;
+        if (used * 2 >= capacity) {
+            resize();
+        }
+        writeCounts();
+        return true;
+    }
+
+    @Override
+    public boolean remove(String value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int idx = PackedLowercase.isPackable(value) ? indexOf(PackedLowercase.pack(value), hash(value)) : -1;
+        if (idx < 0) {
+            return false;
+        }
+        setSlot(idx, DELETED);
+        size--;
+        writeCounts();
+        return true;
+    }
+
+    private int indexOf(byte[] packed, int h) {
+        int mask = capacity - 1;
+        int step = step(h, mask);
+        int idx = h & mask;
+        int probe = 1;
+        long slot;
+        while ((slot = slot(idx)) != FREE) {
+            if (slot != DELETED && (int) (slot >>> 32) == h && matches(slot, packed)) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(probe);
+                }
+                return idx;
+            }
+            idx = (idx + step) & mask;
+            probe++;
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(probe);
+        }
+        return -1;
+    }
+
+    private static int hash(String value) {
+        int h = PackedLowercase.hash(value);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Second hash is taken from the high bits and is always odd,
+     * so the probe sequence goes through the whole table
+     */
+    private static int step(int h, int mask) {
+        return (Integer.reverse(h) | 1) & mask;
+    }
+
+    private long slot(int idx) {
+        return slots.getLong(HEADER + (long) idx * Long.BYTES);
+    }
+
+    private void setSlot(int idx, long slot) {
+        slots.putLong(HEADER + (long) idx * Long.BYTES, slot);
+    }
+
+    private static long offset(long slot) {
+        return (slot & 0xFFFFFFFFL) * ALIGN;
+    }
+
+    private boolean matches(long slot, byte[] packed) {
+        long offset = offset(slot);
+        if (keys.getShort(offset) != packed.length) {
+            return false;
+        }
+        for (int i = 0; i < packed.length; i++) {
+            if (keys.get(offset + 2 + i) != packed[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the record of a packed key, its length and bytes, at the end of the keys
+     * @return offset of the record
+     */
+    private long append(byte[] packed) {
+        if (packed.length > MAX_PACKED_LENGTH) {
+            throw new IllegalArgumentException("key is too long: " + packed.length + " bytes packed");
+        }
+        int length = 2 + packed.length;
+        long offset = keysEnd;
+        //Запись не должна пересекать границу отображённых кусков
+        if (Region.chunkOffset(offset) + length > Region.CHUNK) {
+            offset = Region.nextChunk(offset);
+        }
+        long end = (offset + length + ALIGN - 1) & -ALIGN;
+        if (end > MAX_KEYS_LENGTH) {
+            throw new IllegalStateException("keys file is full");
+        }
+        try {
+            if (end > keys.length()) {
+                keys.grow(Math.max(end, Math.min(keys.length() << 1, MAX_KEYS_LENGTH)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        keys.putShort(offset, (short) packed.length);
+        for (int i = 0; i < packed.length; i++) {
+            keys.put(offset + 2 + i, packed[i]);
+        }
+        keysEnd = end;
+        return offset;
+    }
+
+    private String key(long slot) {
+        long offset = offset(slot);
+        byte[] packed = new byte[keys.getShort(offset) & 0xFFFF];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = keys.get(offset + 2 + i);
+        }
+        return PackedLowercase.unpack(packed);
+    }
+
+    private void writeCounts() {
+        slots.putInt(SIZE_OFFSET, size);
+        slots.putInt(USED_OFFSET, used);
+        slots.putLong(KEYS_END_OFFSET, keysEnd);
+    }
+
+    /**
+     * Doubles the table, or rebuilds it with the same capacity
+     * if it is mostly filled with tombstones.
+     * The new slot array is written to a temporary file, which then replaces the old one,
+     * so a crash during rehash leaves the previous table intact.
+     */
+    private void resize() {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        int newCapacity = size * 4 >= capacity ? capacity << 1 : capacity;
+        Path slotsPath = dir.resolve("slots");
+        Path tmpPath = dir.resolve("slots.tmp");
+        try {
+            Files.deleteIfExists(tmpPath);
+            Region resized = new Region(tmpPath, HEADER + (long) newCapacity * Long.BYTES);
+            int mask = newCapacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                long slot = slot(i);
+                if (slot == FREE || slot == DELETED) {
+                    continue;
+                }
+                int h = (int) (slot >>> 32);
+                int step = step(h, mask);
+                int idx = h & mask;
+                while (resized.getLong(HEADER + (long) idx * Long.BYTES) != FREE) {
+                    idx = (idx + step) & mask;
+                }
+                resized.putLong(HEADER + (long) idx * Long.BYTES, slot);
+            }
+            capacity = newCapacity;
+            used = size;
+            writeHeader(resized);
+            keys.force();
+            resized.force();
+            Files.move(tmpPath, slotsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            slots.close();
+            slots = resized;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (Metrics.ENABLED) {
+            metrics.rehashed();
+            metrics.paused(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Splits by ranges of slots; the parts read the mapped files concurrently without copying them
+     */
+    @Override
+    public Spliterator<String> spliterator() {
+        Region region = slots;
+        return new SlotSpliterator<String>((idx, action) -> {
+            long slot = region.getLong(HEADER + (long) idx * Long.BYTES);
+            if (slot != FREE && slot != DELETED) {
+                action.accept(key(slot));
+            }
+        }, capacity, size, 0);
+    }
+
+    /**
+     * Counters live in memory only and start from zero on every {@link #open}
+     */
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, -1);
+    }
+
+    /**
+     * Forces all changes to the disk
+     */
+    public void flush() throws IOException {
+        keys.force();
+        slots.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            try {
+                slots.close();
+            } finally {
+                keys.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("MOHT{");
+        boolean first = true;
+        for (int i = 0; i < capacity; i++) {
+            long slot = slot(i);
+            if (slot == FREE || slot == DELETED) {
+                continue;
+            }
+            if (!first) {
+                sb.append(", ");
+            }
+            sb.append(key(slot));
+            first = false;
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * File mapped by chunks of {@link #CHUNK} bytes, because one buffer can not be larger than 2 GB.
+     * Only the last chunk may be shorter; it is remapped when the file grows.
+     */
+    static final class Region implements Closeable {
+
+        static final int CHUNK_BITS = 30;
+        static final long CHUNK = 1L << CHUNK_BITS;
+
+        private final FileChannel channel;
+        private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+        private long length;
+
+        Region(Path path, long minLength) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            grow(Math.max(channel.size(), minLength));
+        }
+
+        static long chunkOffset(long pos) {
+            return pos & (CHUNK - 1);
+        }
+
+        static long nextChunk(long pos) {
+            return (pos | (CHUNK - 1)) + 1;
+        }
+
+        long length() {
+            return length;
+        }
+
+        /**
+         * Extends the file and maps the new bytes; mapping past the end of a file grows it
+         */
+        void grow(long newLength) throws IOException {
+            if (newLength <= length) {
+                return;
+            }
+            int count = (int) ((newLength + CHUNK - 1) >>> CHUNK_BITS);
+            MappedByteBuffer[] grown = Arrays.copyOf(chunks, count);
+            //Полные куски остаются как были, последний неполный отображается заново
+            for (int i = (int) (length >>> CHUNK_BITS); i < count; i++) {
+                long from = (long) i << CHUNK_BITS;
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, from, Math.min(CHUNK, newLength - from));
+            }
+            chunks = grown;
+            length = newLength;
+        }
+
+        private MappedByteBuffer chunk(long pos) {
+            return chunks[(int) (pos >>> CHUNK_BITS)];
+        }
+
+        byte get(long pos) {
+            return chunk(pos).get((int) chunkOffset(pos));
+        }
+
+        void put(long pos, byte value) {
+            chunk(pos).put((int) chunkOffset(pos), value);
+        }
+
+        short getShort(long pos) {
+            return chunk(pos).getShort((int) chunkOffset(pos));
+        }
+
+        void putShort(long pos, short value) {
+            chunk(pos).putShort((int) chunkOffset(pos), value);
+        }
+
+        int getInt(long pos) {
+            return chunk(pos).getInt((int) chunkOffset(pos));
+        }
+
+        void putInt(long pos, int value) {
+            chunk(pos).putInt((int) chunkOffset(pos), value);
+        }
+
+        long getLong(long pos) {
+            return chunk(pos).getLong((int) chunkOffset(pos));
+        }
+
+        void putLong(long pos, long value) {
+            chunk(pos).putLong((int) chunkOffset(pos), value);
+        }
+
+        void force() {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            //Отображение живёт до сборки буферов, канал можно закрыть сразу
+            chunks = new MappedByteBuffer[0];
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("moht");
+        try (MappedOpenHashTable ts = MappedOpenHashTable.open(dir)) {
+            ts.add("abc");
+            ts.add("abc");
+            ts.add("bcd");
+            ts.add("cde");
+            ts.add("qwerty");
+            ts.add("polis");
+            System.out.println(ts.size());
+            System.out.println(ts);
+            ts.remove("abc");
+        }
+        //Повторное открытие отображает файлы, не перестраивая таблицу
+        try (MappedOpenHashTable ts = MappedOpenHashTable.open(dir)) {
+            System.out.println(ts.contains("abc") + " " + ts.contains("polis"));
+            System.out.println(ts);
+        }
+    }
+}
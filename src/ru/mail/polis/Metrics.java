@@ -0,0 +1,90 @@
+package ru.mail.polis;
+
+/**
+ * Counters behind {@link SetStats}.
+ * <p>
+ * Recording is switched on for the whole JVM by {@code -Dru.mail.polis.metrics=true}.
+ * Every call site is guarded by the constant {@link #ENABLED}, so when metrics are off
+ * the JIT drops the calls and sets create no counters: {@link #create()} returns null.
+ * <p>
+ * Counters are plain fields: they are exact for sets used by one thread
+ * and approximate for the concurrent ones.
+ */
+final class Metrics {
+
+    static final boolean ENABLED = Boolean.getBoolean("ru.mail.polis.metrics");
+    //Корзина 0 - длина 0, корзина k - длины от 2^(k-1) до 2^k - 1
+    static final int BUCKETS = Integer.SIZE + 1;
+
+    private long comparisons;
+    private long rotations;
+    private long rehashes;
+    private long rehashNanos;
+    private long maxRehashNanos;
+    private long probes;
+    private long probeLength;
+    private int maxProbeLength;
+    private final long[] histogram = new long[BUCKETS];
+
+    private Metrics() {
+    }
+
+    /**
+     * @return counters for a new set, or null if metrics are disabled
+     */
+    static Metrics create() {
+        return ENABLED ? new Metrics() : null;
+    }
+
+    void compared() {
+        comparisons++;
+    }
+
+    /**
+     * Records a lookup which looked at the given number of chain nodes, slots or tree nodes
+     */
+    void probed(int length) {
+        histogram[bucket(length)]++;
+        probes++;
+        probeLength += length;
+        if (length > maxProbeLength) {
+            maxProbeLength = length;
+        }
+    }
+
+    void rotated() {
+        rotations++;
+    }
+
+    void rehashed() {
+        rehashes++;
+    }
+
+    /**
+     * Records a pause spent on rehashing: the whole rehash, or one step of an incremental one
+     */
+    void paused(long nanos) {
+        rehashNanos += nanos;
+        if (nanos > maxRehashNanos) {
+            maxRehashNanos = nanos;
+        }
+    }
+
+    static int bucket(int length) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(length);
+    }
+
+    /**
+     * @param metrics counters of the set, null if metrics are disabled
+     * @param height  height of a tree, number of levels of a skip list, -1 for hash tables
+     */
+    static SetStats stats(Metrics metrics, ISet<?> set, int height) {
+        if (metrics == null) {
+            return new SetStats(set.getClass().getSimpleName(), set.size(), height);
+        }
+        return new SetStats(set.getClass().getSimpleName(), set.size(), height,
+                metrics.comparisons, metrics.rotations, metrics.rehashes,
+                metrics.rehashNanos, metrics.maxRehashNanos,
+                metrics.probes, metrics.probeLength, metrics.maxProbeLength, metrics.histogram.clone());
+    }
+}
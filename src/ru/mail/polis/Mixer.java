@@ -0,0 +1,103 @@
+package ru.mail.polis;
+
+/**
+ * Built-in {@link HashStrategy}: its kind and seed are all a {@link Snapshot} needs to restore it
+ */
+final class Mixer<T> implements HashStrategy<T> {
+
+    //Виды стратегий в снимке
+    static final byte IDENTITY = 1;
+    static final byte MURMUR3 = 2;
+    static final byte WYHASH = 3;
+    //Хеш-код со старшей половиной, свёрнутой в младшую: так OpenHashTable хешировала до появления стратегий
+    static final byte SPREAD = 4;
+
+    //Нечётные константы wyhash
+    private static final long P0 = 0xA0761D6478BD642FL;
+    private static final long P1 = 0xE7037ED1A0B428DBL;
+    private static final long P2 = 0x8EBC6AF09C88C6E3L;
+    private static final long LOW = 0xFFFFFFFFL;
+
+    private final byte kind;
+    private final long seed;
+
+    Mixer(byte kind, long seed) {
+        if (kind < IDENTITY || kind > SPREAD) {
+            throw new IllegalArgumentException("unknown hash strategy " + kind);
+        }
+        this.kind = kind;
+        this.seed = seed;
+    }
+
+    byte kind() {
+        return kind;
+    }
+
+    long seed() {
+        return seed;
+    }
+
+    @Override
+    public int hash(T value) {
+        return kind == WYHASH ? wyhash((CharSequence) value) : mix(value.hashCode());
+    }
+
+    /**
+     * Mixes a ready hash code, for example of a packed string; identity returns it as it is
+     */
+    int mix(int h) {
+        if (kind == IDENTITY) {
+            return h;
+        }
+        if (kind == SPREAD) {
+            return h ^ (h >>> 16);
+        }
+        long x = h ^ seed;
+        x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+        x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return (int) (x ^ (x >>> 32));
+    }
+
+    private int wyhash(CharSequence s) {
+        int length = s.length();
+        long h = seed ^ P0;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            h = mum(word(s, i) ^ P1, word(s, i + 4) ^ h);
+        }
+        //Хвост короче восьми символов
+        long a = 0;
+        long b = 0;
+        for (int j = 0; i + j < length; j++) {
+            long c = s.charAt(i + j);
+            if (j < 4) {
+                a |= c << (j * Character.SIZE);
+            } else {
+                b |= c << ((j - 4) * Character.SIZE);
+            }
+        }
+        h = mum(a ^ P1, b ^ h);
+        h = mum(h ^ P2, length ^ P1);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long word(CharSequence s, int i) {
+        return s.charAt(i) | (long) s.charAt(i + 1) << 16 | (long) s.charAt(i + 2) << 32 | (long) s.charAt(i + 3) << 48;
+    }
+
+    /**
+     * Both halves of the unsigned 128-bit product folded by xor
+     */
+    private static long mum(long a, long b) {
+        long a1 = a >>> 32;
+        long a0 = a & LOW;
+        long b1 = b >>> 32;
+        long b0 = b & LOW;
+        long p01 = a0 * b1;
+        long p10 = a1 * b0;
+        long middle = ((a0 * b0) >>> 32) + (p01 & LOW) + (p10 & LOW);
+        long high = a1 * b1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+        return a * b ^ high;
+    }
+}
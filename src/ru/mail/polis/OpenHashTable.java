@@ -1,42 +1,403 @@
 package ru.mail.polis;
 
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
 
-//TODO: write code here
+/**
+ * Open addressing with double hashing.
+ * Capacity is a power of two, so any odd step visits every slot of the table.
+ * The keys are hashed by a {@link HashStrategy}, by default seeded MurmurHash3 mixing of the hash code.
+ * The table is rehashed when the load factor (live keys and tombstones) reaches 1/2.
+ */
 public class OpenHashTable<E extends Comparable<E>> implements ISet<E> {
 
+    private static final int INITIAL_CAPACITY = 8;
+    //Метка удалённого элемента, чтобы не рвать цепочку проб
+    private static final Object DELETED = new Object();
+
     private Comparator<E> comparator;
+    private final boolean packed;
+    private final HashStrategy<? super E> strategy;
+    private Object[] table;
+    private int size;
+    //Занятые ячейки вместе с удалёнными
+    private int used;
+    private final Metrics metrics = Metrics.create();
 
     public OpenHashTable() {
         this(null);
     }
 
     public OpenHashTable(Comparator<E> comparator) {
+        this(comparator, HashStrategy.murmur3());
+    }
+
+    public OpenHashTable(Comparator<E> comparator, HashStrategy<? super E> strategy) {
+        this(comparator, false, strategy);
+        if (strategy == null) {
+            throw new NullPointerException("strategy is null");
+        }
+    }
+
+    private OpenHashTable(Comparator<E> comparator, boolean packed, HashStrategy<? super E> strategy) {
         this.comparator = comparator;
+        this.packed = packed;
+        this.strategy = strategy;
+        this.table = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Table of strings of lowercase latin letters, which keeps every key
+     * as a byte array with five bits per letter instead of a {@link String}.
+     * Adding a string with any other character throws {@link IllegalArgumentException}.
+     * The hash of the letters is mixed by seeded MurmurHash3, since the packed keys are not strings.
+     */
+    public static OpenHashTable<String> packed() {
+        return new OpenHashTable<>(null, true, HashStrategy.murmur3());
     }
 
     @Override
     public int size() {
-        return 0;
+        return size;
     }
 
     @Override
     public boolean isEmpty() {
-        return false;
+        return size == 0;
     }
 
     @Override
     public boolean contains(E value) {
-        return false;
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return indexOf(value, hash(value)) >= 0;
     }
 
     @Override
     public boolean add(E value) {
-        return false;
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return add(value, hash(value));
+    }
+
+    private boolean add(E value, int h) {
+        int mask = table.length - 1;
+        int step = step(h, mask);
+        int idx = h & mask;
+        int deleted = -1;
+        int probe = 1;
+        while (table[idx] != null) {
+            if (table[idx] == DELETED) {
+                if (deleted < 0) {
+                    deleted = idx;
+                }
+            } else if (matches(table[idx], value)) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(probe);
+                }
+                return false;
+            }
+            idx = (idx + step) & mask;
+            probe++;
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(probe);
+        }
+        //Упаковка проверяет буквы, поэтому идёт до изменения счётчиков
+        Object stored = packed ? PackedLowercase.pack((String) value) : value;
+        //Переиспользуем первую удалённую ячейку на пути
+        if (deleted >= 0) {
+            idx = deleted;
+        } else {
+            used++;
+        }
+        table[idx] = stored;
+        size++;
+        if (used * 2 >= table.length) {
+            resize();
+        }
+        return true;
     }
 
     @Override
     public boolean remove(E value) {
-        return false;
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int idx = indexOf(value, hash(value));
+        if (idx < 0) {
+            return false;
+        }
+        table[idx] = DELETED;
+        size--;
+        return true;
+    }
+
+    private int indexOf(E value, int h) {
+        int mask = table.length - 1;
+        int step = step(h, mask);
+        int idx = h & mask;
+        int probe = 1;
+        while (table[idx] != null) {
+            if (table[idx] != DELETED && matches(table[idx], value)) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(probe);
+                }
+                return idx;
+            }
+            idx = (idx + step) & mask;
+            probe++;
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(probe);
+        }
+        return -1;
+    }
+
+    /**
+     * Hashes the group first, then inserts it
+     */
+    @Override
+    public BitSet addAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        int[] hashes = new int[Batch.GROUP];
+        Object[] firsts = new Object[Batch.GROUP];
+        for (int from = 0; from < values.size(); from += Batch.GROUP) {
+            int to = Math.min(from + Batch.GROUP, values.size());
+            prefetch(values, from, to, hashes, firsts);
+            //Первые ячейки не используем: вставки группы могут их занять или перестроить таблицу
+            for (int i = from; i < to; i++) {
+                if (add(values.get(i), hashes[i - from])) {
+                    result.set(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Probes the keys by groups of {@link Batch#GROUP}, see there
+     */
+    @Override
+    public BitSet containsAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        int[] hashes = new int[Batch.GROUP];
+        Object[] firsts = new Object[Batch.GROUP];
+        for (int from = 0; from < values.size(); from += Batch.GROUP) {
+            int to = Math.min(from + Batch.GROUP, values.size());
+            prefetch(values, from, to, hashes, firsts);
+            for (int i = from; i < to; i++) {
+                //Пустая первая ячейка - ключа точно нет, пробы не нужны
+                if (firsts[i - from] != null && indexOf(values.get(i), hashes[i - from]) >= 0) {
+                    result.set(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #containsAll(List)}: removal leaves a tombstone,
+     * so a slot which was free before the group stays free
+     */
+    @Override
+    public BitSet removeAll(List<E> values) {
+        BitSet result = new BitSet(values.size());
+        int[] hashes = new int[Batch.GROUP];
+        Object[] firsts = new Object[Batch.GROUP];
+        for (int from = 0; from < values.size(); from += Batch.GROUP) {
+            int to = Math.min(from + Batch.GROUP, values.size());
+            prefetch(values, from, to, hashes, firsts);
+            for (int i = from; i < to; i++) {
+                int idx = firsts[i - from] == null ? -1 : indexOf(values.get(i), hashes[i - from]);
+                if (idx >= 0) {
+                    table[idx] = DELETED;
+                    size--;
+                    result.set(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void prefetch(List<E> values, int from, int to, int[] hashes, Object[] firsts) {
+        Object[] tab = table;
+        int mask = tab.length - 1;
+        for (int i = from; i < to; i++) {
+            int h = hash(Batch.checked(values.get(i)));
+            hashes[i - from] = h;
+            firsts[i - from] = tab[h & mask];
+        }
+    }
+
+    private int hash(E value) {
+        return packed ? ((Mixer<? super E>) strategy).mix(PackedLowercase.hash((String) value)) : strategy.hash(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int storedHash(Object stored) {
+        return packed ? ((Mixer<? super E>) strategy).mix(PackedLowercase.hash((byte[]) stored))
+                : strategy.hash((E) stored);
+    }
+
+    /**
+     * Second hash is taken from the high bits and is always odd,
+     * so the probe sequence goes through the whole table
+     */
+    private static int step(int h, int mask) {
+        return (Integer.reverse(h) | 1) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean matches(Object stored, E value) {
+        if (packed) {
+            return PackedLowercase.matches((byte[]) stored, (String) value);
+        }
+        return compare((E) stored, value) == 0;
+    }
+
+    private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * Doubles the table, or rebuilds it with the same capacity
+     * if it is mostly filled with tombstones
+     */
+    private void resize() {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        Object[] old = table;
+        int capacity = size * 4 >= old.length ? old.length << 1 : old.length;
+        table = new Object[capacity];
+        used = size;
+        int mask = capacity - 1;
+        for (Object stored : old) {
+            if (stored == null || stored == DELETED) {
+                continue;
+            }
+            int h = storedHash(stored);
+            int step = step(h, mask);
+            int idx = h & mask;
+            while (table[idx] != null) {
+                idx = (idx + step) & mask;
+            }
+            table[idx] = stored;
+        }
+        if (Metrics.ENABLED) {
+            metrics.rehashed();
+            metrics.paused(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Splits by ranges of slots of the current array
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        Object[] tab = table;
+        return new SlotSpliterator<E>((idx, action) -> {
+            Object stored = tab[idx];
+            if (stored != null && stored != DELETED) {
+                action.accept(valueOf(stored));
+            }
+        }, tab.length, size, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E valueOf(Object stored) {
+        return packed ? (E) PackedLowercase.unpack((byte[]) stored) : (E) stored;
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, -1);
+    }
+
+    /**
+     * Writes the hash strategy and the slots as they are, tombstones included, so {@link #readSlots} needs no rehash
+     *
+     * @throws IllegalArgumentException if the table has a custom hash strategy
+     */
+    @SuppressWarnings("unchecked")
+    void writeSlots(Snapshot.Writer out, Codec<E> codec) throws IOException {
+        out.ensure(1).put((byte) (packed ? 1 : 0));
+        out.strategy(strategy);
+        out.ensure(3 * Integer.BYTES).putInt(table.length).putInt(size).putInt(used);
+        for (Object stored : table) {
+            if (stored == null) {
+                out.ensure(1).put(Snapshot.FREE);
+            } else if (stored == DELETED) {
+                out.ensure(1).put(Snapshot.DELETED);
+            } else {
+                out.ensure(1).put(Snapshot.FULL);
+                if (packed) {
+                    out.bytes((byte[]) stored);
+                } else {
+                    out.element((E) stored, codec);
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if the snapshot is truncated or corrupted
+     */
+    static <E extends Comparable<E>> OpenHashTable<E> readSlots(Snapshot.Reader in, Codec<E> codec,
+                                                                Comparator<E> comparator) throws IOException {
+        boolean packed = in.need(1).get() != 0;
+        OpenHashTable<E> result = new OpenHashTable<>(comparator, packed, in.<E>strategy(Mixer.SPREAD));
+        result.table = new Object[in.capacity()];
+        result.size = in.count();
+        result.used = in.count();
+        for (int i = 0; i < result.table.length; i++) {
+            byte state = in.need(1).get();
+            if (state == Snapshot.DELETED) {
+                result.table[i] = DELETED;
+            } else if (state == Snapshot.FULL) {
+                result.table[i] = packed ? in.bytes() : in.element(codec);
+            } else if (state != Snapshot.FREE) {
+                throw new IOException("corrupted slot " + i + ": " + state);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("OHT{");
+        for (int i = 0; i < table.length; i++) {
+            Object stored = table[i];
+            if (stored == null || stored == DELETED) {
+                continue;
+            }
+            if (sb.length() > 4) {
+                sb.append(", ");
+            }
+            sb.append(packed ? PackedLowercase.unpack((byte[]) stored) : stored);
+        }
+        return sb.append('}').toString();
+    }
+
+    public static void main(String[] args) {
+        OpenHashTable<String> ts = OpenHashTable.packed();
+        ts.add("abc");
+        ts.add("abc");
+        ts.add("bcd");
+        ts.add("cde");
+        ts.add("qwerty");
+        ts.add("polis");
+        System.out.println(ts.size());
+        System.out.println(ts);
+        ts.remove("abc");
+        System.out.println(ts.contains("abc") + " " + ts.contains("polis"));
+        System.out.println(ts);
     }
 }
@@ -0,0 +1,114 @@
+package ru.mail.polis;
+
+/**
+ * Packs strings of lowercase latin letters five bits per letter.
+ * Letters are coded as 1..26, so a zero group marks the end of the string
+ * and the packed form needs no separate length.
+ */
+final class PackedLowercase {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private PackedLowercase() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string contains not a lowercase latin letter
+     */
+    static byte[] pack(String s) {
+        byte[] packed = new byte[packedLength(s.length())];
+        for (int i = 0, bit = 0; i < s.length(); i++, bit += BITS) {
+            char c = s.charAt(i);
+            if (c < 'a' || c > 'z') {
+                throw new IllegalArgumentException("only lowercase latin letters are allowed: " + s);
+            }
+            int code = c - 'a' + 1;
+            int idx = bit >>> 3;
+            int shift = bit & 7;
+            packed[idx] |= (byte) (code << shift);
+            if (shift > 8 - BITS) {
+                packed[idx + 1] |= (byte) (code >>> (8 - shift));
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * @return true if the string consists of lowercase latin letters only and can be packed
+     */
+    static boolean isPackable(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String unpack(byte[] packed) {
+        StringBuilder sb = new StringBuilder(packed.length * 8 / BITS);
+        int code;
+        for (int i = 0; (code = code(packed, i)) != 0; i++) {
+            sb.append((char) ('a' + code - 1));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Same value as {@link #hash(byte[])} of the packed string, computed without packing it
+     */
+    static int hash(String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + (s.charAt(i) - 'a' + 1);
+        }
+        return h;
+    }
+
+    static int hash(byte[] packed) {
+        int h = 0;
+        int code;
+        for (int i = 0; (code = code(packed, i)) != 0; i++) {
+            h = 31 * h + code;
+        }
+        return h;
+    }
+
+    /**
+     * @return true if the packed string is equal to the given one
+     */
+    static boolean matches(byte[] packed, String s) {
+        if (packed.length != packedLength(s.length())) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (code(packed, i) != s.charAt(i) - 'a' + 1) {
+                return false;
+            }
+        }
+        //В последнем байте может уместиться ещё одна буква упакованной строки
+        return code(packed, s.length()) == 0;
+    }
+
+    private static int packedLength(int length) {
+        return (length * BITS + 7) >>> 3;
+    }
+
+    /**
+     * @return code of the i-th letter or 0 if the string is shorter
+     */
+    private static int code(byte[] packed, int i) {
+        int bit = i * BITS;
+        int idx = bit >>> 3;
+        if (bit + BITS > packed.length << 3) {
+            return 0;
+        }
+        int word = packed[idx] & 0xFF;
+        if (idx + 1 < packed.length) {
+            word |= (packed[idx + 1] & 0xFF) << 8;
+        }
+        return (word >>> (bit & 7)) & MASK;
+    }
+}
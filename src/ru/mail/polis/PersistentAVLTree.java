@@ -0,0 +1,543 @@
+package ru.mail.polis;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+/**
+ * Immutable AVL tree with structural sharing.
+ * <p>
+ * {@link #with(Comparable)} and {@link #without(Comparable)} return a new version of the set:
+ * only the O(log n) nodes on the search path are copied, the rest are shared with the old version.
+ * Nodes never change after construction and have no parent links, so any number of threads
+ * may read any version without synchronization, and iterators never fail.
+ * <p>
+ * The mutating methods of {@link ISet} throw {@link UnsupportedOperationException};
+ * {@link CopyOnWriteSortedSet} publishes versions to concurrent readers and writers.
+ */
+public final class PersistentAVLTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    static final class Node<E> {
+        final E value;
+        final Node<E> left;
+        final Node<E> right;
+        final int height;
+        //Число узлов в поддереве, для size, rank и select
+        final int count;
+
+        Node(E value, Node<E> left, Node<E> right) {
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+            this.count = 1 + count(left) + count(right);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("N{");
+            sb.append("d=").append(value);
+            if (left != null) {
+                sb.append(", l=").append(left);
+            }
+            if (right != null) {
+                sb.append(", r=").append(right);
+            }
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    private final Node<E> root;
+    private final Comparator<E> comparator;
+    //Общие для всех версий, полученных из одного пустого дерева
+    private final Metrics metrics;
+
+    private PersistentAVLTree(Node<E> root, Comparator<E> comparator, Metrics metrics) {
+        this.root = root;
+        this.comparator = comparator;
+        this.metrics = metrics;
+    }
+
+    public static <E extends Comparable<E>> PersistentAVLTree<E> empty() {
+        return empty(null);
+    }
+
+    public static <E extends Comparable<E>> PersistentAVLTree<E> empty(Comparator<E> comparator) {
+        return new PersistentAVLTree<>(null, comparator, Metrics.create());
+    }
+
+    /**
+     * Builds a balanced tree from values in ascending order in linear time.
+     * Equal neighbours are added once.
+     * @throws IllegalArgumentException if the values are not sorted
+     */
+    public static <E extends Comparable<E>> PersistentAVLTree<E> fromSorted(Iterable<E> values) {
+        return fromSorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> PersistentAVLTree<E> fromSorted(Iterable<E> values,
+                                                                            Comparator<E> comparator) {
+        List<E> sorted = BulkLoad.distinctSorted(values, comparator);
+        return new PersistentAVLTree<>(build(sorted, 0, sorted.size()), comparator, Metrics.create());
+    }
+
+    /**
+     * Sorts the values and builds a balanced tree from them, duplicates are added once
+     */
+    public static <E extends Comparable<E>> PersistentAVLTree<E> fromUnsorted(Collection<E> values) {
+        return fromUnsorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> PersistentAVLTree<E> fromUnsorted(Collection<E> values,
+                                                                              Comparator<E> comparator) {
+        List<E> sorted = BulkLoad.distinctUnsorted(values, comparator);
+        return new PersistentAVLTree<>(build(sorted, 0, sorted.size()), comparator, Metrics.create());
+    }
+
+    private static <E> Node<E> build(List<E> values, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        return new Node<>(values.get(mid), build(values, from, mid), build(values, mid + 1, to));
+    }
+
+    /**
+     * @return version with the value added, or this one if the value is already there
+     * @throws NullPointerException if the specified element is null
+     */
+    public PersistentAVLTree<E> with(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> newRoot = insert(root, value);
+        return newRoot == root ? this : new PersistentAVLTree<>(newRoot, comparator, metrics);
+    }
+
+    /**
+     * @return version without the value, or this one if there is no such value
+     * @throws NullPointerException if the specified element is null
+     */
+    public PersistentAVLTree<E> without(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> newRoot = delete(root, value);
+        return newRoot == root ? this : new PersistentAVLTree<>(newRoot, comparator, metrics);
+    }
+
+    /**
+     * @return new root of the subtree with the value inserted, the same node if it is already there
+     */
+    private Node<E> insert(Node<E> node, E value) {
+        if (node == null) {
+            return new Node<>(value, null, null);
+        }
+        int cmp = compare(node.value, value);
+        if (cmp == 0) {
+            return node;
+        }
+        //Копируем узел, только если поддерево действительно изменилось
+        if (cmp > 0) {
+            Node<E> left = insert(node.left, value);
+            return left == node.left ? node : balance(node.value, left, node.right);
+        }
+        Node<E> right = insert(node.right, value);
+        return right == node.right ? node : balance(node.value, node.left, right);
+    }
+
+    /**
+     * @return new root of the subtree with the value removed, the same node if there is no such value
+     */
+    private Node<E> delete(Node<E> node, E value) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(node.value, value);
+        if (cmp > 0) {
+            Node<E> left = delete(node.left, value);
+            return left == node.left ? node : balance(node.value, left, node.right);
+        }
+        if (cmp < 0) {
+            Node<E> right = delete(node.right, value);
+            return right == node.right ? node : balance(node.value, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        //Место удаляемого занимает наименьший из больших
+        Node<E> min = node.right;
+        while (min.left != null) {
+            min = min.left;
+        }
+        return balance(min.value, node.left, deleteMin(node.right));
+    }
+
+    private Node<E> deleteMin(Node<E> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.value, deleteMin(node.left), node.right);
+    }
+
+    /**
+     * Creates a node from the value and two subtrees whose heights differ by at most two,
+     * rotating new nodes instead of existing ones
+     */
+    private Node<E> balance(E value, Node<E> left, Node<E> right) {
+        //Перевешено влево...
+        if (height(left) > height(right) + 1) {
+            if (Metrics.ENABLED) {
+                metrics.rotated();
+            }
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.value, left.left, new Node<>(value, left.right, right));
+            }
+            //...а левый сын вправо
+            return new Node<>(left.right.value,
+                    new Node<>(left.value, left.left, left.right.left),
+                    new Node<>(value, left.right.right, right));
+        }
+        //Перевешено вправо...
+        if (height(right) > height(left) + 1) {
+            if (Metrics.ENABLED) {
+                metrics.rotated();
+            }
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.value, new Node<>(value, left, right.left), right.right);
+            }
+            //...а правый сын влево
+            return new Node<>(right.left.value,
+                    new Node<>(value, left, right.left.left),
+                    new Node<>(right.value, right.left.right, right.right));
+        }
+        return new Node<>(value, left, right);
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int count(Node<?> node) {
+        return node == null ? 0 : node.count;
+    }
+
+    @Override
+    public int size() {
+        return count(root);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> curr = root;
+        int depth = 0;
+        while (curr != null) {
+            depth++;
+            int cmp = compare(curr.value, value);
+            if (cmp == 0) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(depth);
+                }
+                return true;
+            } else if (cmp < 0) {
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(depth);
+        }
+        return false;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, use {@link #with(Comparable)}
+     */
+    @Override
+    public boolean add(E value) {
+        throw new UnsupportedOperationException("persistent tree, use with()");
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, use {@link #without(Comparable)}
+     */
+    @Override
+    public boolean remove(E value) {
+        throw new UnsupportedOperationException("persistent tree, use without()");
+    }
+
+    @Override
+    public E first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        Node<E> curr = root;
+        while (curr.left != null) {
+            curr = curr.left;
+        }
+        return curr.value;
+    }
+
+    @Override
+    public E last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        Node<E> curr = root;
+        while (curr.right != null) {
+            curr = curr.right;
+        }
+        return curr.value;
+    }
+
+    @Override
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E floor(E value) {
+        return valueOf(lowerNode(value, true));
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return valueOf(higherNode(value, true));
+    }
+
+    @Override
+    public E lower(E value) {
+        return valueOf(lowerNode(value, false));
+    }
+
+    @Override
+    public E higher(E value) {
+        return valueOf(higherNode(value, false));
+    }
+
+    /**
+     * @return the greatest node less than (or equal to, if inclusive) the value
+     */
+    private Node<E> lowerNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> result = null;
+        Node<E> curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp < 0 || inclusive && cmp == 0) {
+                result = curr;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the least node greater than (or equal to, if inclusive) the value
+     */
+    private Node<E> higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> result = null;
+        Node<E> curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp > 0 || inclusive && cmp == 0) {
+                result = curr;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return result;
+    }
+
+    private E valueOf(Node<E> node) {
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Works in O(log n) using subtree sizes
+     */
+    @Override
+    public int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int rank = 0;
+        Node<E> curr = root;
+        while (curr != null) {
+            if (compare(curr.value, value) < 0) {
+                //Весь левый сын и сам узел меньше значения
+                rank += count(curr.left) + 1;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Works in O(log n) using subtree sizes
+     */
+    @Override
+    public E select(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+        }
+        Node<E> curr = root;
+        while (true) {
+            int left = count(curr.left);
+            if (index < left) {
+                curr = curr.left;
+            } else if (index == left) {
+                return curr.value;
+            } else {
+                index -= left + 1;
+                curr = curr.right;
+            }
+        }
+    }
+
+    /**
+     * The iterator walks this version, so it never fails and does not see later versions
+     */
+    @Override
+    public Iterator<E> iterator() {
+        InorderIterator iterator = new InorderIterator();
+        iterator.pushLeft(root);
+        return iterator;
+    }
+
+    @Override
+    public Iterator<E> iterator(E from) {
+        if (from == null) {
+            throw new NullPointerException("value is null");
+        }
+        InorderIterator iterator = new InorderIterator();
+        //На стеке - узлы пути, не меньшие from: они и их правые поддеревья ещё впереди
+        Node<E> curr = root;
+        while (curr != null) {
+            if (compare(curr.value, from) >= 0) {
+                iterator.stack.push(curr);
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return iterator;
+    }
+
+    /**
+     * Keeps the path to the next node on an explicit stack, since nodes have no parent links
+     */
+    private class InorderIterator implements Iterator<E> {
+
+        private final Deque<Node<E>> stack = new ArrayDeque<>();
+
+        private void pushLeft(Node<E> curr) {
+            while (curr != null) {
+                stack.push(curr);
+                curr = curr.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<E> curr = stack.pop();
+            pushLeft(curr.right);
+            return curr.value;
+        }
+    }
+
+    private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * Looks up the whole batch in one walk of the tree, see {@link Batch#containsAll}
+     */
+    @Override
+    public BitSet containsAll(List<E> values) {
+        return Batch.containsAll(values, comparator, root, new Batch.Tree<Node<E>, E>() {
+            @Override
+            public Node<E> left(Node<E> node) {
+                return node.left;
+            }
+
+            @Override
+            public Node<E> right(Node<E> node) {
+                return node.right;
+            }
+
+            @Override
+            public E value(Node<E> node) {
+                return node.value;
+            }
+        }, this::compare);
+    }
+
+    /**
+     * Counters are shared by all versions derived from the same tree
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new RankSpliterator<>(this, Spliterator.IMMUTABLE);
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, height(root));
+    }
+
+    @Override
+    public String toString() {
+        return "PAVL{" + root + "}";
+    }
+
+    public static void main(String[] args) {
+        PersistentAVLTree<Integer> v1 = PersistentAVLTree.<Integer>empty().with(10).with(5).with(15);
+        PersistentAVLTree<Integer> v2 = v1.with(20);
+        System.out.println(v1.inorderTraverse() + " " + v2.inorderTraverse());
+        System.out.println(v2);
+        //Правое поддерево скопировано, левое разделяется между версиями
+        System.out.println(v1.root.left == v2.root.left);
+        System.out.println(v2.without(5).without(10).inorderTraverse() + " " + v2.inorderTraverse());
+    }
+}
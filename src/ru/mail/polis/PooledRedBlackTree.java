@@ -0,0 +1,611 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Red-black tree with the same top-down algorithms as {@link RedBlackTree},
+ * but nodes are indices into parallel arrays instead of objects:
+ * no per-node header and children of a node lie next to each other in memory.
+ * Freed slots are kept in a free list linked through {@code left}.
+ */
+public class PooledRedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+    //Нулевой индекс - отсутствующий узел, он всегда чёрный
+    private static final int NIL = 0;
+    //Фиктивный корень для спуска сверху вниз
+    private static final int HEAD = 1;
+    private static final int INITIAL_CAPACITY = 16;
+    //Высота красно-чёрного дерева не больше 2 * log2(n + 1)
+    private static final int MAX_HEIGHT = 64;
+
+    private int[] left;
+    private int[] right;
+    private boolean[] red;
+    //Число узлов в поддереве, для rank и select; у NIL всегда ноль
+    private int[] count;
+    private Object[] values;
+
+    private int root = NIL;
+    private int free = NIL;
+    private int allocated = HEAD + 1;
+    private int size;
+    private int modCount;
+    private final Comparator<E> comparator;
+    private final Metrics metrics = Metrics.create();
+
+    public PooledRedBlackTree() {
+        this(null);
+    }
+
+    public PooledRedBlackTree(Comparator<E> comparator) {
+        this.comparator = comparator;
+        this.left = new int[INITIAL_CAPACITY];
+        this.right = new int[INITIAL_CAPACITY];
+        this.red = new boolean[INITIAL_CAPACITY];
+        this.count = new int[INITIAL_CAPACITY];
+        this.values = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Builds a balanced tree from values in ascending order in linear time.
+     * Equal neighbours are added once.
+     * All levels are black except the lowest incomplete one, which is red.
+     * Subtree sizes are set on the way up.
+     * @throws IllegalArgumentException if the values are not sorted
+     */
+    public static <E extends Comparable<E>> PooledRedBlackTree<E> fromSorted(Iterable<E> values) {
+        return fromSorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> PooledRedBlackTree<E> fromSorted(Iterable<E> values,
+                                                                             Comparator<E> comparator) {
+        PooledRedBlackTree<E> tree = new PooledRedBlackTree<>(comparator);
+        tree.build(BulkLoad.distinctSorted(values, comparator));
+        return tree;
+    }
+
+    /**
+     * Sorts the values and builds a balanced tree from them, duplicates are added once
+     */
+    public static <E extends Comparable<E>> PooledRedBlackTree<E> fromUnsorted(Collection<E> values) {
+        return fromUnsorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> PooledRedBlackTree<E> fromUnsorted(Collection<E> values,
+                                                                               Comparator<E> comparator) {
+        PooledRedBlackTree<E> tree = new PooledRedBlackTree<>(comparator);
+        tree.build(BulkLoad.distinctUnsorted(values, comparator));
+        return tree;
+    }
+
+    private void build(List<E> values) {
+        int capacity = Math.max(INITIAL_CAPACITY, values.size() + HEAD + 1);
+        left = new int[capacity];
+        right = new int[capacity];
+        red = new boolean[capacity];
+        count = new int[capacity];
+        this.values = new Object[capacity];
+        root = build(values, 0, values.size(), 0, BulkLoad.lowestLevel(values.size()));
+        red[root] = false;
+        size = values.size();
+    }
+
+    private int build(List<E> values, int from, int to, int depth, int redDepth) {
+        if (from >= to) {
+            return NIL;
+        }
+        int mid = (from + to) >>> 1;
+        int node = allocate(values.get(mid));
+        red[node] = depth == redDepth;
+        left[node] = build(values, from, mid, depth + 1, redDepth);
+        right[node] = build(values, mid + 1, to, depth + 1, redDepth);
+        update(node);
+        return node;
+    }
+
+    @Override
+    public E first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        int curr = root;
+        while (left[curr] != NIL) {
+            curr = left[curr];
+        }
+        return value(curr);
+    }
+
+    @Override
+    public E last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        int curr = root;
+        while (right[curr] != NIL) {
+            curr = right[curr];
+        }
+        return value(curr);
+    }
+
+    @Override
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E floor(E value) {
+        return value(lowerNode(value, true));
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return value(higherNode(value, true));
+    }
+
+    @Override
+    public E lower(E value) {
+        return value(lowerNode(value, false));
+    }
+
+    @Override
+    public E higher(E value) {
+        return value(higherNode(value, false));
+    }
+
+    /**
+     * @return the greatest node less than (or equal to, if inclusive) the value, NIL if there is none
+     */
+    private int lowerNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int result = NIL;
+        int curr = root;
+        while (curr != NIL) {
+            int cmp = compare(value(curr), value);
+            if (cmp < 0 || inclusive && cmp == 0) {
+                result = curr;
+                curr = right[curr];
+            } else {
+                curr = left[curr];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the least node greater than (or equal to, if inclusive) the value, NIL if there is none
+     */
+    private int higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int result = NIL;
+        int curr = root;
+        while (curr != NIL) {
+            int cmp = compare(value(curr), value);
+            if (cmp > 0 || inclusive && cmp == 0) {
+                result = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Works in O(log n) using subtree sizes
+     */
+    @Override
+    public int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int rank = 0;
+        int curr = root;
+        while (curr != NIL) {
+            if (compare(value(curr), value) < 0) {
+                rank += count[left[curr]] + 1;
+                curr = right[curr];
+            } else {
+                curr = left[curr];
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Works in O(log n) using subtree sizes
+     */
+    @Override
+    public E select(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        int curr = root;
+        while (true) {
+            int smaller = count[left[curr]];
+            if (index < smaller) {
+                curr = left[curr];
+            } else if (index == smaller) {
+                return value(curr);
+            } else {
+                index -= smaller + 1;
+                curr = right[curr];
+            }
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        InorderIterator iterator = new InorderIterator();
+        iterator.pushLeft(root);
+        return iterator;
+    }
+
+    @Override
+    public Iterator<E> iterator(E from) {
+        if (from == null) {
+            throw new NullPointerException("value is null");
+        }
+        InorderIterator iterator = new InorderIterator();
+        int curr = root;
+        while (curr != NIL) {
+            if (compare(value(curr), from) >= 0) {
+                iterator.stack[iterator.depth++] = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return iterator;
+    }
+
+    private class InorderIterator implements Iterator<E> {
+
+        private final int[] stack = new int[MAX_HEIGHT];
+        private int depth;
+        private final int expectedModCount = modCount;
+
+        private void pushLeft(int curr) {
+            while (curr != NIL) {
+                stack[depth++] = curr;
+                curr = left[curr];
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            int curr = stack[--depth];
+            pushLeft(right[curr]);
+            return value(curr);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int curr = root;
+        int depth = 0;
+        while (curr != NIL) {
+            depth++;
+            int cmp = compare(value(curr), value);
+            if (cmp == 0) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(depth);
+                }
+                return true;
+            } else if (cmp < 0) {
+                curr = right[curr];
+            } else {
+                curr = left[curr];
+            }
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(depth);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        boolean added = false;
+        if (root == NIL) {
+            root = allocate(value);
+            added = true;
+        } else {
+            right[HEAD] = root;
+            int t = HEAD;
+            int g = NIL;
+            int p = NIL;
+            int q = root;
+            int dir = LEFT;
+            int last = LEFT;
+            int depth = 0;
+            while (true) {
+                if (q == NIL) {
+                    q = allocate(value);
+                    setChild(p, dir, q);
+                    added = true;
+                } else if (red[left[q]] && red[right[q]]) {
+                    red[q] = true;
+                    red[left[q]] = false;
+                    red[right[q]] = false;
+                }
+                if (red[q] && red[p]) {
+                    int dir2 = right[t] == g ? RIGHT : LEFT;
+                    if (q == child(p, last)) {
+                        setChild(t, dir2, rotate(g, 1 - last));
+                    } else {
+                        setChild(t, dir2, rotateTwice(g, 1 - last));
+                    }
+                }
+                depth++;
+                int cmp = compare(value(q), value);
+                if (cmp == 0) {
+                    break;
+                }
+                last = dir;
+                dir = cmp < 0 ? RIGHT : LEFT;
+                if (g != NIL) {
+                    t = g;
+                }
+                g = p;
+                p = q;
+                q = child(q, dir);
+            }
+            root = right[HEAD];
+            right[HEAD] = NIL;
+            if (Metrics.ENABLED) {
+                metrics.probed(depth);
+            }
+            if (added) {
+                recount(root, value);
+            }
+        }
+        red[root] = false;
+        if (added) {
+            size++;
+            modCount++;
+        }
+        return added;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (root == NIL) {
+            return false;
+        }
+        right[HEAD] = root;
+        int g = NIL;
+        int p = NIL;
+        int q = HEAD;
+        int f = NIL;
+        int dir = RIGHT;
+        while (child(q, dir) != NIL) {
+            int last = dir;
+            g = p;
+            p = q;
+            q = child(q, dir);
+            int cmp = compare(value(q), value);
+            dir = cmp < 0 ? RIGHT : LEFT;
+            if (cmp == 0) {
+                f = q;
+            }
+            if (red[q] || red[child(q, dir)]) {
+                continue;
+            }
+            if (red[child(q, 1 - dir)]) {
+                int r = rotate(q, dir);
+                setChild(p, last, r);
+                p = r;
+            } else {
+                int s = child(p, 1 - last);
+                if (s == NIL) {
+                    continue;
+                }
+                if (!red[left[s]] && !red[right[s]]) {
+                    red[p] = false;
+                    red[s] = true;
+                    red[q] = true;
+                } else {
+                    int dir2 = right[g] == p ? RIGHT : LEFT;
+                    if (red[child(s, last)]) {
+                        setChild(g, dir2, rotateTwice(p, last));
+                    } else {
+                        setChild(g, dir2, rotate(p, last));
+                    }
+                    int top = child(g, dir2);
+                    red[q] = true;
+                    red[top] = true;
+                    red[left[top]] = false;
+                    red[right[top]] = false;
+                }
+            }
+        }
+        if (f != NIL) {
+            E removed = value(q);
+            for (int curr = right[HEAD]; curr != q; ) {
+                count[curr]--;
+                curr = compare(value(curr), removed) < 0 ? right[curr] : left[curr];
+            }
+            values[f] = values[q];
+            setChild(p, right[p] == q ? RIGHT : LEFT, left[q] == NIL ? right[q] : left[q]);
+            release(q);
+            size--;
+            modCount++;
+        }
+        root = right[HEAD];
+        right[HEAD] = NIL;
+        red[root] = false;
+        return f != NIL;
+    }
+
+    private int allocate(E value) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left[node];
+        } else {
+            if (allocated == values.length) {
+                int capacity = values.length << 1;
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                red = Arrays.copyOf(red, capacity);
+                count = Arrays.copyOf(count, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            node = allocated++;
+        }
+        left[node] = NIL;
+        right[node] = NIL;
+        red[node] = true;
+        count[node] = 1;
+        values[node] = value;
+        return node;
+    }
+
+    private void release(int node) {
+        values[node] = null;
+        red[node] = false;
+        count[node] = 0;
+        right[node] = NIL;
+        left[node] = free;
+        free = node;
+    }
+
+    /**
+     * Recomputes subtree sizes on the path from the node down to the value, bottom-up
+     */
+    private void recount(int node, E value) {
+        int cmp = compare(value(node), value);
+        if (cmp != 0) {
+            recount(cmp < 0 ? right[node] : left[node], value);
+        }
+        update(node);
+    }
+
+    private void update(int node) {
+        count[node] = 1 + count[left[node]] + count[right[node]];
+    }
+
+    @SuppressWarnings("unchecked")
+    private E value(int node) {
+        return (E) values[node];
+    }
+
+    private int child(int node, int dir) {
+        return dir == LEFT ? left[node] : right[node];
+    }
+
+    private void setChild(int node, int dir, int child) {
+        if (dir == LEFT) {
+            left[node] = child;
+        } else {
+            right[node] = child;
+        }
+    }
+
+    private int rotate(int node, int dir) {
+        int save = child(node, 1 - dir);
+        setChild(node, 1 - dir, child(save, dir));
+        setChild(save, dir, node);
+        red[node] = true;
+        red[save] = false;
+        update(node);
+        update(save);
+        modCount++;
+        if (Metrics.ENABLED) {
+            metrics.rotated();
+        }
+        return save;
+    }
+
+    private int rotateTwice(int node, int dir) {
+        setChild(node, 1 - dir, rotate(child(node, 1 - dir), 1 - dir));
+        return rotate(node, dir);
+    }
+
+    private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * Looks up the whole batch in one walk of the tree, see {@link Batch#containsAll}
+     */
+    @Override
+    public BitSet containsAll(List<E> values) {
+        return Batch.containsAll(values, comparator, root, new Batch.IntTree<E>() {
+            @Override
+            public int left(int node) {
+                return left[node];
+            }
+
+            @Override
+            public int right(int node) {
+                return right[node];
+            }
+
+            @Override
+            public E value(int node) {
+                return PooledRedBlackTree.this.value(node);
+            }
+        }, this::compare);
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, height(root));
+    }
+
+    private int height(int node) {
+        return node == NIL ? 0 : 1 + Math.max(height(left[node]), height(right[node]));
+    }
+
+    @Override
+    public String toString() {
+        return "PRBT" + inorderTraverse();
+    }
+}
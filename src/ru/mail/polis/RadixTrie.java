@@ -0,0 +1,711 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted set of strings of lowercase latin letters stored as a compressed radix trie:
+ * a chain of nodes with one child each is merged into one edge, so every node is either a key or a branching,
+ * and a prefix shared by many keys is stored once. Letters are coded as 0..25 and select the child directly,
+ * so a search costs O(key length) with neither hashing nor comparing whole strings.
+ * <p>
+ * Children are adaptive: a node with up to {@link #SPARSE_MAX} children keeps their first letters
+ * packed five bits each into a long, a wider node indexes them by the letter. The first letters of an edge
+ * are packed into its node too, so a search reads the node and the array of its children on every level
+ * and nothing else. Every node knows the number of keys
+ * in its subtree, so {@link #rank}, {@link #select} and {@link #prefixCount} do not walk the subtrees.
+ * <p>
+ * The natural ordering of strings is the ordering of the trie: a prefix goes before its extensions,
+ * children go in alphabetical order. {@link #contains} and {@link #remove} of a string with other characters
+ * return false, the other methods throw {@link IllegalArgumentException} for it.
+ */
+public class RadixTrie implements ISortedSet<String> {
+
+    private static final int ALPHABET = 26;
+    //Буква занимает 5 бит, в long помещаются 12 букв
+    private static final int BITS = 5;
+    private static final int PACKED = 12;
+    //До стольких детей их буквы упакованы в long, дальше - массив детей на весь алфавит
+    private static final int SPARSE_MAX = PACKED;
+    private static final byte[] EMPTY = new byte[0];
+
+    static final class Node {
+
+        //Первые 12 букв ребра от родителя, по первой из них узел ищется среди детей родителя
+        long label;
+        //Остальные буквы длинного ребра, иначе null
+        byte[] labelTail;
+        int labelLength;
+        boolean terminal;
+        //Число ключей в поддереве, для rank и select
+        int count;
+        //Первые буквы детей разреженного узла по возрастанию
+        long letters;
+        //Дети в порядке letters, а у плотного узла - по букве; null у листа
+        Node[] children;
+        int degree;
+
+        //Буквы лежат в полях узла, а не в отдельных массивах: поиск читает меньше объектов
+        Node(byte[] label) {
+            setLabel(label);
+        }
+
+        void setLabel(byte[] letters) {
+            labelLength = letters.length;
+            label = pack(letters, Math.min(letters.length, PACKED));
+            labelTail = letters.length > PACKED ? Arrays.copyOfRange(letters, PACKED, letters.length) : null;
+        }
+
+        byte[] label() {
+            byte[] letters = new byte[labelLength];
+            for (int i = 0; i < labelLength; i++) {
+                letters[i] = (byte) letter(i);
+            }
+            return letters;
+        }
+
+        /**
+         * @return i-th letter of the label
+         */
+        int letter(int i) {
+            return i < PACKED ? (int) (label >>> (i * BITS)) & ((1 << BITS) - 1) : labelTail[i - PACKED];
+        }
+
+        boolean isDense() {
+            return children != null && children.length == ALPHABET;
+        }
+
+        /**
+         * @return number of slots of the children, some of them are empty in a dense node
+         */
+        int slots() {
+            return isDense() ? ALPHABET : degree;
+        }
+
+        /**
+         * @return letter of the child in the slot
+         */
+        int letterAt(int slot) {
+            return isDense() ? slot : (int) (letters >>> (slot * BITS)) & ((1 << BITS) - 1);
+        }
+
+        /**
+         * @return first slot whose child starts with the letter or a greater one
+         */
+        int slotOf(int letter) {
+            if (isDense()) {
+                return letter;
+            }
+            int slot = 0;
+            while (slot < degree && letterAt(slot) < letter) {
+                slot++;
+            }
+            return slot;
+        }
+
+        Node child(int letter) {
+            if (isDense()) {
+                return children[letter];
+            }
+            long rest = letters;
+            for (int i = 0; i < degree; i++, rest >>>= BITS) {
+                if ((rest & ((1 << BITS) - 1)) == letter) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void setChild(int letter, Node child) {
+            children[isDense() ? letter : slotOf(letter)] = child;
+        }
+
+        void addChild(int letter, Node child) {
+            if (children == null) {
+                children = new Node[2];
+            }
+            if (isDense()) {
+                children[letter] = child;
+                degree++;
+                return;
+            }
+            if (degree == SPARSE_MAX) {
+                Node[] dense = new Node[ALPHABET];
+                for (int i = 0; i < degree; i++) {
+                    dense[letterAt(i)] = children[i];
+                }
+                dense[letter] = child;
+                letters = 0;
+                children = dense;
+                degree++;
+                return;
+            }
+            if (degree == children.length) {
+                children = Arrays.copyOf(children, Math.min(degree * 2, SPARSE_MAX));
+            }
+            int slot = slotOf(letter);
+            System.arraycopy(children, slot, children, slot + 1, degree - slot);
+            children[slot] = child;
+            //Буквы правее места вставки сдвигаются на одну
+            long low = letters & ((1L << (slot * BITS)) - 1);
+            letters = low | (letters & ~low) << BITS | (long) letter << (slot * BITS);
+            degree++;
+        }
+
+        void removeChild(int letter) {
+            if (isDense()) {
+                children[letter] = null;
+                degree--;
+                //Обратно в разреженный с запасом, чтобы не переделывать узел туда-сюда
+                if (degree <= SPARSE_MAX / 2) {
+                    Node[] dense = children;
+                    children = new Node[SPARSE_MAX];
+                    letters = 0;
+                    int slot = 0;
+                    for (int i = 0; i < ALPHABET; i++) {
+                        if (dense[i] != null) {
+                            letters |= (long) i << (slot * BITS);
+                            children[slot++] = dense[i];
+                        }
+                    }
+                }
+                return;
+            }
+            int slot = slotOf(letter);
+            degree--;
+            System.arraycopy(children, slot + 1, children, slot, degree - slot);
+            children[degree] = null;
+            long low = letters & ((1L << (slot * BITS)) - 1);
+            letters = low | (letters >>> ((slot + 1) * BITS)) << (slot * BITS);
+            if (degree == 0) {
+                children = null;
+            }
+        }
+
+        /**
+         * @return the child of a node with one child
+         */
+        Node onlyChild() {
+            for (int i = 0; i < slots(); i++) {
+                if (children[i] != null) {
+                    return children[i];
+                }
+            }
+            throw new IllegalStateException("no children");
+        }
+    }
+
+    private static long pack(byte[] letters, int length) {
+        long packed = 0;
+        for (int i = 0; i < length; i++) {
+            packed |= (long) letters[i] << (i * BITS);
+        }
+        return packed;
+    }
+
+    //Корень с пустой меткой никогда не удаляется и не сливается
+    private final Node root = new Node(EMPTY);
+    private int modCount;
+    private final Metrics metrics = Metrics.create();
+
+    @Override
+    public int size() {
+        return root.count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root.count == 0;
+    }
+
+    @Override
+    public boolean contains(String value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (!PackedLowercase.isPackable(value)) {
+            return false;
+        }
+        Node node = find(value);
+        return node != null && node.terminal;
+    }
+
+    /**
+     * @return node whose path is the key, or null if there is no such node
+     */
+    private Node find(String key) {
+        Node node = root;
+        int pos = 0;
+        int depth = 1;
+        while (pos < key.length()) {
+            node = node.child(key.charAt(pos) - 'a');
+            if (node == null || !matches(node, key, pos)) {
+                node = null;
+                break;
+            }
+            pos += node.labelLength;
+            depth++;
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(depth);
+        }
+        return node;
+    }
+
+    /**
+     * @return true if the whole label is found in the key from the position
+     */
+    private boolean matches(Node node, String key, int pos) {
+        if (key.length() - pos < node.labelLength) {
+            return false;
+        }
+        //Первая буква уже совпала при выборе ребёнка
+        for (int i = 1; i < node.labelLength; i++) {
+            if (key.charAt(pos + i) - 'a' != node.letter(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string contains not a lowercase latin letter
+     */
+    @Override
+    public boolean add(String value) {
+        check(value);
+        Node found = find(value);
+        if (found != null && found.terminal) {
+            return false;
+        }
+        //Ключа нет - спускаемся ещё раз, сразу увеличивая размеры поддеревьев
+        Node node = root;
+        int pos = 0;
+        while (true) {
+            node.count++;
+            if (pos == value.length()) {
+                node.terminal = true;
+                break;
+            }
+            int letter = value.charAt(pos) - 'a';
+            Node child = node.child(letter);
+            if (child == null) {
+                Node leaf = new Node(letters(value, pos));
+                leaf.terminal = true;
+                leaf.count = 1;
+                node.addChild(letter, leaf);
+                break;
+            }
+            int common = 1;
+            while (common < child.labelLength && pos + common < value.length()
+                    && value.charAt(pos + common) - 'a' == child.letter(common)) {
+                common++;
+            }
+            if (common < child.labelLength) {
+                //Ключ расходится с ребром посередине - разрезаем ребро узлом ветвления
+                byte[] label = child.label();
+                Node middle = new Node(Arrays.copyOf(label, common));
+                child.setLabel(Arrays.copyOfRange(label, common, label.length));
+                middle.count = child.count;
+                middle.addChild(child.letter(0), child);
+                node.setChild(letter, middle);
+                child = middle;
+            }
+            pos += common;
+            node = child;
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(String value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (!PackedLowercase.isPackable(value)) {
+            return false;
+        }
+        Node found = find(value);
+        if (found == null || !found.terminal) {
+            return false;
+        }
+        Node grandparent = null;
+        Node parent = null;
+        Node node = root;
+        for (int pos = 0; ; pos += node.labelLength) {
+            node.count--;
+            if (pos == value.length()) {
+                break;
+            }
+            grandparent = parent;
+            parent = node;
+            node = node.child(value.charAt(pos) - 'a');
+        }
+        node.terminal = false;
+        //Узел без ключа должен ветвиться: лист удаляем, узел с одним ребёнком сливаем с ним
+        if (node != root) {
+            if (node.degree == 0) {
+                parent.removeChild(node.letter(0));
+                if (parent != root && !parent.terminal && parent.degree == 1) {
+                    merge(grandparent, parent);
+                }
+            } else if (node.degree == 1) {
+                merge(parent, node);
+            }
+        }
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Replaces a node without a key and with one child by the child with the joined label
+     */
+    private void merge(Node parent, Node node) {
+        Node child = node.onlyChild();
+        byte[] label = Arrays.copyOf(node.label(), node.labelLength + child.labelLength);
+        System.arraycopy(child.label(), 0, label, node.labelLength, child.labelLength);
+        child.setLabel(label);
+        parent.setChild(label[0], child);
+    }
+
+    private static void check(String value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (!PackedLowercase.isPackable(value)) {
+            throw new IllegalArgumentException("only lowercase latin letters are allowed: " + value);
+        }
+    }
+
+    private static byte[] letters(String value, int from) {
+        byte[] letters = new byte[value.length() - from];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = (byte) (value.charAt(from + i) - 'a');
+        }
+        return letters;
+    }
+
+    /**
+     * Works in O(key length * 26) without walking the subtrees
+     */
+    @Override
+    public int rank(String value) {
+        check(value);
+        Node node = root;
+        int rank = 0;
+        int pos = 0;
+        while (pos < value.length()) {
+            //Ключ самого узла - собственный префикс значения, он меньше
+            if (node.terminal) {
+                rank++;
+            }
+            int letter = value.charAt(pos) - 'a';
+            int slot = node.slotOf(letter);
+            for (int i = 0; i < slot; i++) {
+                if (node.children[i] != null) {
+                    rank += node.children[i].count;
+                }
+            }
+            Node child = node.child(letter);
+            if (child == null) {
+                return rank;
+            }
+            for (int i = 1; i < child.labelLength; i++) {
+                //Значение кончилось посреди ребра - все ключи поддерева длиннее и больше
+                if (pos + i == value.length()) {
+                    return rank;
+                }
+                int diff = value.charAt(pos + i) - 'a' - child.letter(i);
+                if (diff != 0) {
+                    return diff > 0 ? rank + child.count : rank;
+                }
+            }
+            pos += child.labelLength;
+            node = child;
+        }
+        return rank;
+    }
+
+    @Override
+    public String select(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+        }
+        StringBuilder path = new StringBuilder();
+        Node node = root;
+        while (true) {
+            if (node.terminal) {
+                if (index == 0) {
+                    return path.toString();
+                }
+                index--;
+            }
+            for (int i = 0; i < node.slots(); i++) {
+                Node child = node.children[i];
+                if (child == null) {
+                    continue;
+                }
+                if (index < child.count) {
+                    node = child;
+                    break;
+                }
+                index -= child.count;
+            }
+            for (int i = 0; i < node.labelLength; i++) {
+                path.append((char) ('a' + node.letter(i)));
+            }
+        }
+    }
+
+    @Override
+    public String first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return select(0);
+    }
+
+    @Override
+    public String last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return select(size() - 1);
+    }
+
+    @Override
+    public Comparator<String> comparator() {
+        return null;
+    }
+
+    @Override
+    public String floor(String value) {
+        return contains(value) ? value : lower(value);
+    }
+
+    @Override
+    public String ceiling(String value) {
+        int rank = rank(value);
+        return rank < size() ? select(rank) : null;
+    }
+
+    @Override
+    public String lower(String value) {
+        int rank = rank(value);
+        return rank > 0 ? select(rank - 1) : null;
+    }
+
+    @Override
+    public String higher(String value) {
+        int rank = rank(value) + (contains(value) ? 1 : 0);
+        return rank < size() ? select(rank) : null;
+    }
+
+    /**
+     * @return number of keys that start with the prefix, in O(prefix length)
+     * @throws IllegalArgumentException if the prefix contains not a lowercase latin letter
+     */
+    public int prefixCount(String prefix) {
+        check(prefix);
+        Node node = root;
+        int pos = 0;
+        while (pos < prefix.length()) {
+            node = node.child(prefix.charAt(pos) - 'a');
+            if (node == null) {
+                return 0;
+            }
+            for (int i = 1; i < node.labelLength && pos + i < prefix.length(); i++) {
+                if (prefix.charAt(pos + i) - 'a' != node.letter(i)) {
+                    return 0;
+                }
+            }
+            pos += node.labelLength;
+        }
+        return node.count;
+    }
+
+    /**
+     * Returns a lazy iterator over the keys that start with the prefix, in sorting ordering.
+     * They are the first {@link #prefixCount} keys from the prefix on, so the scan stops
+     * right after the last of them.
+     *
+     * @throws IllegalArgumentException if the prefix contains not a lowercase latin letter
+     */
+    public Iterator<String> prefixScan(String prefix) {
+        TrieIterator iterator = (TrieIterator) iterator(prefix);
+        iterator.remaining = prefixCount(prefix);
+        return iterator;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        TrieIterator iterator = new TrieIterator();
+        iterator.push(root, -1);
+        iterator.next = iterator.advance();
+        return iterator;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string contains not a lowercase latin letter
+     */
+    @Override
+    public Iterator<String> iterator(String from) {
+        check(from);
+        TrieIterator iterator = new TrieIterator();
+        //На стеке - узлы пути к from, у каждого следующий слот - первый ребёнок с ключами больше from
+        Node node = root;
+        iterator.push(root, 0);
+        for (int pos = 0; ; ) {
+            int top = iterator.depth - 1;
+            if (pos == from.length()) {
+                //Ключ узла равен from, а ключи поддерева длиннее
+                iterator.slots[top] = -1;
+                break;
+            }
+            int letter = from.charAt(pos) - 'a';
+            int slot = node.slotOf(letter);
+            Node child = slot < node.slots() && node.letterAt(slot) == letter ? node.children[slot] : null;
+            if (child == null) {
+                iterator.slots[top] = slot;
+                break;
+            }
+            iterator.slots[top] = slot + 1;
+            int common = 1;
+            while (common < child.labelLength && pos + common < from.length()
+                    && from.charAt(pos + common) - 'a' == child.letter(common)) {
+                common++;
+            }
+            if (common == child.labelLength) {
+                iterator.push(child, 0);
+                pos += common;
+                node = child;
+                continue;
+            }
+            //Ребро больше from - всё поддерево впереди, меньше - всё позади
+            if (pos + common == from.length() || child.letter(common) > from.charAt(pos + common) - 'a') {
+                iterator.push(child, -1);
+            }
+            break;
+        }
+        iterator.next = iterator.advance();
+        return iterator;
+    }
+
+    /**
+     * Walks the trie in preorder, which is the sorting ordering of the keys
+     */
+    private class TrieIterator implements Iterator<String> {
+
+        private Node[] nodes = new Node[16];
+        //Следующий слот детей узла, -1 - ключ самого узла ещё не выдан
+        private int[] slots = new int[16];
+        //Длина пути вместе с меткой узла
+        private int[] ends = new int[16];
+        private int depth;
+        private char[] path = new char[32];
+        private String next;
+        private int remaining = Integer.MAX_VALUE;
+        private final int expectedModCount = modCount;
+
+        void push(Node node, int slot) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                slots = Arrays.copyOf(slots, depth * 2);
+                ends = Arrays.copyOf(ends, depth * 2);
+            }
+            int start = depth == 0 ? 0 : ends[depth - 1];
+            int end = start + node.labelLength;
+            if (end > path.length) {
+                path = Arrays.copyOf(path, Math.max(end, path.length * 2));
+            }
+            for (int i = 0; i < node.labelLength; i++) {
+                path[start + i] = (char) ('a' + node.letter(i));
+            }
+            nodes[depth] = node;
+            slots[depth] = slot;
+            ends[depth++] = end;
+        }
+
+        String advance() {
+            while (depth > 0) {
+                int top = depth - 1;
+                Node node = nodes[top];
+                if (slots[top] < 0) {
+                    slots[top] = 0;
+                    if (node.terminal) {
+                        return new String(path, 0, ends[top]);
+                    }
+                }
+                int slot = slots[top];
+                while (slot < node.slots() && node.children[slot] == null) {
+                    slot++;
+                }
+                if (slot < node.slots()) {
+                    slots[top] = slot + 1;
+                    push(node.children[slot], -1);
+                } else {
+                    depth--;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null && remaining > 0;
+        }
+
+        @Override
+        public String next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            remaining--;
+            next = remaining > 0 ? advance() : null;
+            return result;
+        }
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, height(root));
+    }
+
+    private int height(Node node) {
+        int height = 0;
+        for (int i = 0; i < node.slots(); i++) {
+            if (node.children[i] != null) {
+                height = Math.max(height, height(node.children[i]));
+            }
+        }
+        return height + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "Trie" + inorderTraverse();
+    }
+
+    public static void main(String[] args) {
+        RadixTrie trie = new RadixTrie();
+        for (String word : new String[]{"romane", "romanus", "romulus", "rubens", "ruber", "rubicon", "rubicundus"}) {
+            trie.add(word);
+        }
+        System.out.println(trie);
+        Iterator<String> words = trie.prefixScan("rub");
+        while (words.hasNext()) {
+            System.out.println(words.next());
+        }
+        System.out.println(trie.prefixCount("rom") + " " + trie.rank("rubicon") + " " + trie.ceiling("rubf"));
+        trie.remove("romulus");
+        System.out.println(trie + " " + trie.stats());
+    }
+}
@@ -0,0 +1,106 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator of a sorted set over a range of positions in sorting ordering.
+ * A split halves the range without touching the set; the traversal starts
+ * from {@link ISortedSet#select(int)} of its first position, so both take O(log n)
+ * in the sets that keep subtree sizes, and every part knows its exact size.
+ * <p>
+ * The size of the set is read on the first traversal or split, then the set must not be changed;
+ * once a part has started, its iterator detects the changes as usual.
+ */
+final class RankSpliterator<E extends Comparable<E>> implements Spliterator<E> {
+
+    private final ISortedSet<E> set;
+    private final int characteristics;
+    private int index;
+    //Граница диапазона, -1 до первого обращения
+    private int fence;
+    private Iterator<E> iterator;
+
+    RankSpliterator(ISortedSet<E> set, int characteristics) {
+        this(set, 0, -1, characteristics);
+    }
+
+    private RankSpliterator(ISortedSet<E> set, int index, int fence, int characteristics) {
+        this.set = set;
+        this.index = index;
+        this.fence = fence;
+        this.characteristics = characteristics;
+    }
+
+    private int fence() {
+        if (fence < 0) {
+            fence = set.size();
+        }
+        return fence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        if (action == null) {
+            throw new NullPointerException("action is null");
+        }
+        if (index >= fence()) {
+            return false;
+        }
+        action.accept(next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+        if (action == null) {
+            throw new NullPointerException("action is null");
+        }
+        for (int end = fence(); index < end; ) {
+            action.accept(next());
+        }
+    }
+
+    private E next() {
+        if (iterator == null) {
+            iterator = index == 0 ? set.iterator() : set.iterator(set.select(index));
+        }
+        //Элементы кончились раньше диапазона - множество изменили
+        if (!iterator.hasNext()) {
+            throw new ConcurrentModificationException();
+        }
+        index++;
+        return iterator.next();
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        int lo = index;
+        int mid = (lo + fence()) >>> 1;
+        //Начатую часть не делим: итератор уже стоит на своём месте
+        if (iterator != null || mid <= lo) {
+            return null;
+        }
+        index = mid;
+        return new RankSpliterator<>(set, lo, mid, characteristics);
+    }
+
+    @Override
+    public long estimateSize() {
+        return fence() - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL
+                | Spliterator.SIZED | Spliterator.SUBSIZED | characteristics;
+    }
+
+    @Override
+    public Comparator<? super E> getComparator() {
+        return set.comparator();
+    }
+}
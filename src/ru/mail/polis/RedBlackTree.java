@@ -1,13 +1,70 @@
 package ru.mail.polis;
 
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
-//TODO: write code here
+/**
+ * Red-black tree with single pass top-down insertion and deletion:
+ * colors are fixed on the way down, so there is no way back up and no parent links.
+ */
 public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
 
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+
+    //Операции над множествами
+    private static final int UNION = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE = 2;
+    //Меньшие пары поддеревьев обрабатываются в одном потоке
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    class Node {
+
+        E value;
+        Node left, right;
+        boolean red = true;
+        //Число узлов в поддереве, для rank и select
+        int count = 1;
+
+        Node(E value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("N{");
+            sb.append("d=").append(value);
+            sb.append(red ? ", red" : ", black");
+            if (left != null) {
+                sb.append(", l=").append(left);
+            }
+            if (right != null) {
+                sb.append(", r=").append(right);
+            }
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    private Node root;
     private int size;
+    private int modCount;
     private final Comparator<E> comparator;
+    //Фиктивный корень для спуска сверху вниз
+    private final Node head = new Node(null);
+    private final Metrics metrics = Metrics.create();
 
     public RedBlackTree() {
         this.comparator = null;
@@ -17,47 +74,839 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         this.comparator = comparator;
     }
 
+    /**
+     * Builds a balanced tree from values in ascending order in linear time.
+     * Equal neighbours are added once.
+     * All levels are black except the lowest incomplete one, which is red.
+     * Subtree sizes are set on the way up.
+     * @throws IllegalArgumentException if the values are not sorted
+     */
+    public static <E extends Comparable<E>> RedBlackTree<E> fromSorted(Iterable<E> values) {
+        return fromSorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> RedBlackTree<E> fromSorted(Iterable<E> values,
+                                                                       Comparator<E> comparator) {
+        RedBlackTree<E> tree = new RedBlackTree<>(comparator);
+        tree.build(BulkLoad.distinctSorted(values, comparator));
+        return tree;
+    }
+
+    /**
+     * Sorts the values and builds a balanced tree from them, duplicates are added once
+     */
+    public static <E extends Comparable<E>> RedBlackTree<E> fromUnsorted(Collection<E> values) {
+        return fromUnsorted(values, null);
+    }
+
+    public static <E extends Comparable<E>> RedBlackTree<E> fromUnsorted(Collection<E> values,
+                                                                         Comparator<E> comparator) {
+        RedBlackTree<E> tree = new RedBlackTree<>(comparator);
+        tree.build(BulkLoad.distinctUnsorted(values, comparator));
+        return tree;
+    }
+
+    private void build(List<E> values) {
+        root = build(values, 0, values.size(), 0, BulkLoad.lowestLevel(values.size()));
+        if (root != null) {
+            root.red = false;
+        }
+        size = values.size();
+    }
+
+    private Node build(List<E> values, int from, int to, int depth, int redDepth) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        Node node = new Node(values.get(mid));
+        node.red = depth == redDepth;
+        node.left = build(values, from, mid, depth + 1, redDepth);
+        node.right = build(values, mid + 1, to, depth + 1, redDepth);
+        update(node);
+        return node;
+    }
+
     @Override
     public E first() {
-        return null;
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        Node curr = root;
+        while (curr.left != null) {
+            curr = curr.left;
+        }
+        return curr.value;
     }
 
     @Override
     public E last() {
-        return null;
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        Node curr = root;
+        while (curr.right != null) {
+            curr = curr.right;
+        }
+        return curr.value;
+    }
+
+    @Override
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E floor(E value) {
+        return valueOf(lowerNode(value, true));
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return valueOf(higherNode(value, true));
+    }
+
+    @Override
+    public E lower(E value) {
+        return valueOf(lowerNode(value, false));
+    }
+
+    @Override
+    public E higher(E value) {
+        return valueOf(higherNode(value, false));
+    }
+
+    /**
+     * @return the greatest node less than (or equal to, if inclusive) the value
+     */
+    private Node lowerNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node result = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp < 0 || inclusive && cmp == 0) {
+                result = curr;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the least node greater than (or equal to, if inclusive) the value
+     */
+    private Node higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node result = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp > 0 || inclusive && cmp == 0) {
+                result = curr;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return result;
     }
 
+    private E valueOf(Node node) {
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Works in O(log n) using subtree sizes
+     */
     @Override
-    public List<E> inorderTraverse() {
-        return null;
+    public int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int rank = 0;
+        Node curr = root;
+        while (curr != null) {
+            if (compare(curr.value, value) < 0) {
+                //Весь левый сын и сам узел меньше значения
+                rank += count(curr.left) + 1;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Works in O(log n) using subtree sizes
+     */
+    @Override
+    public E select(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        Node curr = root;
+        while (true) {
+            int left = count(curr.left);
+            if (index < left) {
+                curr = curr.left;
+            } else if (index == left) {
+                return curr.value;
+            } else {
+                index -= left + 1;
+                curr = curr.right;
+            }
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        InorderIterator iterator = new InorderIterator();
+        iterator.pushLeft(root);
+        return iterator;
+    }
+
+    @Override
+    public Iterator<E> iterator(E from) {
+        if (from == null) {
+            throw new NullPointerException("value is null");
+        }
+        InorderIterator iterator = new InorderIterator();
+        //На стеке - узлы пути, не меньшие from: они и их правые поддеревья ещё впереди
+        Node curr = root;
+        while (curr != null) {
+            if (compare(curr.value, from) >= 0) {
+                iterator.stack.push(curr);
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return iterator;
+    }
+
+    private class InorderIterator implements Iterator<E> {
+
+        private final Deque<Node> stack = new ArrayDeque<>();
+        private final int expectedModCount = modCount;
+
+        private void pushLeft(Node curr) {
+            while (curr != null) {
+                stack.push(curr);
+                curr = curr.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node curr = stack.pop();
+            pushLeft(curr.right);
+            return curr.value;
+        }
     }
 
     @Override
     public int size() {
-        return 0;
+        return size;
     }
 
     @Override
     public boolean isEmpty() {
-        return false;
+        return root == null;
     }
 
     @Override
     public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node curr = root;
+        int depth = 0;
+        while (curr != null) {
+            depth++;
+            int cmp = compare(curr.value, value);
+            if (cmp == 0) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(depth);
+                }
+                return true;
+            } else if (cmp < 0) {
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        if (Metrics.ENABLED) {
+            metrics.probed(depth);
+        }
         return false;
     }
 
     @Override
     public boolean add(E value) {
-        return false;
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        boolean added = false;
+        if (root == null) {
+            root = new Node(value);
+            added = true;
+        } else {
+            head.right = root;
+            //t - прадед, g - дед, p - отец, q - текущий узел
+            Node t = head;
+            Node g = null;
+            Node p = null;
+            Node q = root;
+            int dir = LEFT;
+            int last = LEFT;
+            int depth = 0;
+            while (true) {
+                if (q == null) {
+                    //Вставляем новый красный лист
+                    q = new Node(value);
+                    setChild(p, dir, q);
+                    added = true;
+                } else if (isRed(q.left) && isRed(q.right)) {
+                    //Перекрашиваем: красные сыновья -> красный отец
+                    q.red = true;
+                    q.left.red = false;
+                    q.right.red = false;
+                }
+                //Два красных подряд - поворачиваем деда
+                if (isRed(q) && isRed(p)) {
+                    int dir2 = t.right == g ? RIGHT : LEFT;
+                    if (q == child(p, last)) {
+                        setChild(t, dir2, rotate(g, 1 - last));
+                    } else {
+                        setChild(t, dir2, rotateTwice(g, 1 - last));
+                    }
+                }
+                depth++;
+                int cmp = compare(q.value, value);
+                if (cmp == 0) {
+                    break;
+                }
+                last = dir;
+                dir = cmp < 0 ? RIGHT : LEFT;
+                if (g != null) {
+                    t = g;
+                }
+                g = p;
+                p = q;
+                q = child(q, dir);
+            }
+            root = head.right;
+            head.right = null;
+            if (Metrics.ENABLED) {
+                metrics.probed(depth);
+            }
+            if (added) {
+                //Повороты пересчитали только свои узлы, остальной путь до нового узла - здесь
+                recount(root, value);
+            }
+        }
+        root.red = false;
+        if (added) {
+            size++;
+            modCount++;
+        }
+        return added;
     }
 
     @Override
     public boolean remove(E value) {
-        return false;
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (root == null) {
+            return false;
+        }
+        head.right = root;
+        //g - дед, p - отец, q - текущий узел, f - найденный узел
+        Node g = null;
+        Node p = null;
+        Node q = head;
+        Node f = null;
+        int dir = RIGHT;
+        //Спускаемся до предшественника, проталкивая красный цвет вниз
+        while (child(q, dir) != null) {
+            int last = dir;
+            g = p;
+            p = q;
+            q = child(q, dir);
+            int cmp = compare(q.value, value);
+            dir = cmp < 0 ? RIGHT : LEFT;
+            if (cmp == 0) {
+                f = q;
+            }
+            if (isRed(q) || isRed(child(q, dir))) {
+                continue;
+            }
+            if (isRed(child(q, 1 - dir))) {
+                Node r = rotate(q, dir);
+                setChild(p, last, r);
+                p = r;
+            } else {
+                Node s = child(p, 1 - last);
+                if (s == null) {
+                    continue;
+                }
+                if (!isRed(s.left) && !isRed(s.right)) {
+                    //Брат с чёрными сыновьями - просто перекрашиваем
+                    p.red = false;
+                    s.red = true;
+                    q.red = true;
+                } else {
+                    int dir2 = g.right == p ? RIGHT : LEFT;
+                    if (isRed(child(s, last))) {
+                        setChild(g, dir2, rotateTwice(p, last));
+                    } else {
+                        setChild(g, dir2, rotate(p, last));
+                    }
+                    Node top = child(g, dir2);
+                    q.red = true;
+                    top.red = true;
+                    top.left.red = false;
+                    top.right.red = false;
+                }
+            }
+        }
+        if (f != null) {
+            //Все предки вырезаемого узла теряют по элементу
+            for (Node curr = head.right; curr != q; ) {
+                curr.count--;
+                curr = compare(curr.value, q.value) < 0 ? curr.right : curr.left;
+            }
+            //Переносим значение и вырезаем узел с не более чем одним сыном
+            f.value = q.value;
+            setChild(p, p.right == q ? RIGHT : LEFT, q.left == null ? q.right : q.left);
+            q.value = null;
+            q.left = q.right = null;
+            size--;
+            modCount++;
+        }
+        root = head.right;
+        head.right = null;
+        if (root != null) {
+            root.red = false;
+        }
+        return f != null;
+    }
+
+    /**
+     * Recomputes subtree sizes on the path from the node down to the value, bottom-up
+     */
+    private void recount(Node node, E value) {
+        int cmp = compare(node.value, value);
+        if (cmp != 0) {
+            recount(cmp < 0 ? node.right : node.left, value);
+        }
+        update(node);
+    }
+
+    private void update(Node node) {
+        node.count = 1 + count(node.left) + count(node.right);
+    }
+
+    private int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    private boolean isRed(Node node) {
+        return node != null && node.red;
+    }
+
+    private Node child(Node node, int dir) {
+        return dir == LEFT ? node.left : node.right;
+    }
+
+    private void setChild(Node node, int dir, Node child) {
+        if (dir == LEFT) {
+            node.left = child;
+        } else {
+            node.right = child;
+        }
+    }
+
+    /**
+     * Rotates the subtree in the given direction, the new top becomes black and the old one red.
+     * Subtree sizes of both nodes are recomputed from their new children.
+     * @return new root of the subtree
+     */
+    private Node rotate(Node node, int dir) {
+        Node save = child(node, 1 - dir);
+        setChild(node, 1 - dir, child(save, dir));
+        setChild(save, dir, node);
+        node.red = true;
+        save.red = false;
+        update(node);
+        update(save);
+        modCount++;
+        if (Metrics.ENABLED) {
+            metrics.rotated();
+        }
+        return save;
+    }
+
+    private Node rotateTwice(Node node, int dir) {
+        setChild(node, 1 - dir, rotate(child(node, 1 - dir), 1 - dir));
+        return rotate(node, dir);
     }
 
     private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
+
+    /**
+     * Looks up the whole batch in one walk of the tree, see {@link Batch#containsAll}
+     */
+    @Override
+    public BitSet containsAll(List<E> values) {
+        return Batch.containsAll(values, comparator, root, new Batch.Tree<Node, E>() {
+            @Override
+            public Node left(Node node) {
+                return node.left;
+            }
+
+            @Override
+            public Node right(Node node) {
+                return node.right;
+            }
+
+            @Override
+            public E value(Node node) {
+                return node.value;
+            }
+        }, this::compare);
+    }
+
+    /**
+     * Adds all elements of the other tree to this one, the other tree is not changed.
+     * This tree is split by the keys of the other one and joined back around them,
+     * so for m elements in the smaller tree and n in the larger one the work is O(m log(n / m + 1)),
+     * plus copying the nodes that only the other tree has.
+     * The other tree must not be changed meanwhile.
+     *
+     * @return true if this tree changed
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     */
+    public boolean union(RedBlackTree<E> other) {
+        return combine(UNION, other, null);
+    }
+
+    /**
+     * Same as {@link #union(RedBlackTree)}, independent halves are processed by the tasks of the pool
+     */
+    public boolean union(RedBlackTree<E> other, ForkJoinPool pool) {
+        return combine(UNION, other, pool);
+    }
+
+    /**
+     * Keeps only the elements of this tree that the other tree contains, the other tree is not changed.
+     * The work is O(m log(n / m + 1)) as for {@link #union(RedBlackTree)}.
+     *
+     * @return true if this tree changed
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     */
+    public boolean intersection(RedBlackTree<E> other) {
+        return combine(INTERSECTION, other, null);
+    }
+
+    public boolean intersection(RedBlackTree<E> other, ForkJoinPool pool) {
+        return combine(INTERSECTION, other, pool);
+    }
+
+    /**
+     * Removes from this tree all elements of the other tree, the other tree is not changed.
+     * The work is O(m log(n / m + 1)) as for {@link #union(RedBlackTree)}.
+     *
+     * @return true if this tree changed
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     */
+    public boolean difference(RedBlackTree<E> other) {
+        return combine(DIFFERENCE, other, null);
+    }
+
+    public boolean difference(RedBlackTree<E> other, ForkJoinPool pool) {
+        return combine(DIFFERENCE, other, pool);
+    }
+
+    private boolean combine(int op, RedBlackTree<E> other, ForkJoinPool pool) {
+        if (!Objects.equals(comparator, other.comparator)) {
+            throw new IllegalArgumentException("trees are ordered by different comparators");
+        }
+        int oldSize = size;
+        if (other == this) {
+            //Дерево нельзя одновременно резать и читать
+            if (op == DIFFERENCE) {
+                root = null;
+            }
+        } else {
+            root = pool == null ? combine(op, root, other.root, false) : pool.invoke(new Combine(op, root, other.root));
+            if (root != null) {
+                root.red = false;
+            }
+        }
+        size = count(root);
+        modCount++;
+        //Все три операции только добавляют или только удаляют
+        return size != oldSize;
+    }
+
+    /**
+     * Splits the subtree of this tree by the root of the subtree of the other tree
+     * and combines the parts with the subtrees of that root recursively
+     *
+     * @return combined subtree, its root may be red
+     */
+    private Node combine(int op, Node node, Node other, boolean parallel) {
+        if (node == null) {
+            return op == UNION ? copy(other) : null;
+        }
+        if (other == null) {
+            return op == INTERSECTION ? null : node;
+        }
+        boolean fork = parallel && node.count + other.count > PARALLEL_THRESHOLD;
+        Split split = split(node, other.value);
+        Node left;
+        Node right;
+        if (fork) {
+            Combine task = new Combine(op, split.left, other.left);
+            task.fork();
+            right = combine(op, split.right, other.right, true);
+            left = task.join();
+        } else {
+            left = combine(op, split.left, other.left, parallel);
+            right = combine(op, split.right, other.right, parallel);
+        }
+        if (op == UNION) {
+            return join(left, split.middle != null ? split.middle : new Node(other.value), right);
+        }
+        if (op == INTERSECTION && split.middle != null) {
+            return join(left, split.middle, right);
+        }
+        return join(left, right);
+    }
+
+    //Задача живёт только в пуле потоков и не сериализуется
+    @SuppressWarnings("serial")
+    private class Combine extends RecursiveTask<Node> {
+
+        private final int op;
+        private final Node node;
+        private final Node other;
+
+        Combine(int op, Node node, Node other) {
+            this.op = op;
+            this.node = node;
+            this.other = other;
+        }
+
+        @Override
+        protected Node compute() {
+            return combine(op, node, other, true);
+        }
+    }
+
+    /**
+     * Parts of a subtree: less than the key, the node with the key if any, greater than the key
+     */
+    private class Split {
+        Node left, middle, right;
+    }
+
+    private Split split(Node node, E value) {
+        if (node == null) {
+            return new Split();
+        }
+        int cmp = compare(value, node.value);
+        if (cmp == 0) {
+            Split split = new Split();
+            split.left = node.left;
+            split.middle = node;
+            split.right = node.right;
+            return split;
+        }
+        Split split;
+        if (cmp < 0) {
+            split = split(node.left, value);
+            split.right = join(split.right, node, node.right);
+        } else {
+            split = split(node.right, value);
+            split.left = join(node.left, node, split.left);
+        }
+        return split;
+    }
+
+    /**
+     * Joins two subtrees and a node between them, going down the spine of the subtree
+     * with more black nodes to a black subtree with as many black nodes as the other one has.
+     * The root of the result may be red.
+     */
+    private Node join(Node left, Node node, Node right) {
+        int leftHeight = blackHeight(left);
+        int rightHeight = blackHeight(right);
+        if (leftHeight > rightHeight) {
+            Node joined = joinRight(left, leftHeight, node, right, rightHeight);
+            //Два красных на вершине: корень можно просто перекрасить
+            if (joined.red && isRed(joined.right)) {
+                joined.red = false;
+            }
+            return joined;
+        }
+        if (rightHeight > leftHeight) {
+            Node joined = joinLeft(left, node, right, rightHeight, leftHeight);
+            if (joined.red && isRed(joined.left)) {
+                joined.red = false;
+            }
+            return joined;
+        }
+        node.red = !isRed(left) && !isRed(right);
+        return attach(node, left, right);
+    }
+
+    private Node joinRight(Node left, int leftHeight, Node node, Node right, int rightHeight) {
+        if (!isRed(left) && leftHeight == rightHeight) {
+            node.red = true;
+            return attach(node, left, right);
+        }
+        left.right = joinRight(left.right, left.red ? leftHeight : leftHeight - 1, node, right, rightHeight);
+        update(left);
+        if (!left.red && isRed(left.right) && isRed(left.right.right)) {
+            left.right.right.red = false;
+            //Поворот сохраняет цвета мест: вершина остается красной, а выше ее исправит родитель
+            Node top = rotate(left, LEFT);
+            top.red = true;
+            left.red = false;
+            return top;
+        }
+        return left;
+    }
+
+    private Node joinLeft(Node left, Node node, Node right, int rightHeight, int leftHeight) {
+        if (!isRed(right) && rightHeight == leftHeight) {
+            node.red = true;
+            return attach(node, left, right);
+        }
+        right.left = joinLeft(left, node, right.left, right.red ? rightHeight : rightHeight - 1, leftHeight);
+        update(right);
+        if (!right.red && isRed(right.left) && isRed(right.left.left)) {
+            right.left.left.red = false;
+            Node top = rotate(right, RIGHT);
+            top.red = true;
+            right.red = false;
+            return top;
+        }
+        return right;
+    }
+
+    /**
+     * Joins two subtrees, the largest node of the left one goes between them
+     */
+    private Node join(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        Split split = splitLast(left);
+        return join(split.left, split.middle, right);
+    }
+
+    private Split splitLast(Node node) {
+        if (node.right == null) {
+            Split split = new Split();
+            split.left = node.left;
+            split.middle = node;
+            return split;
+        }
+        Split split = splitLast(node.right);
+        split.left = join(node.left, node, split.left);
+        return split;
+    }
+
+    private Node attach(Node node, Node left, Node right) {
+        node.left = left;
+        node.right = right;
+        update(node);
+        return node;
+    }
+
+    /**
+     * @return number of black nodes on a path from the node down to null
+     */
+    private int blackHeight(Node node) {
+        int height = 0;
+        for (; node != null; node = node.left) {
+            if (!node.red) {
+                height++;
+            }
+        }
+        return height;
+    }
+
+    private Node copy(Node other) {
+        if (other == null) {
+            return null;
+        }
+        Node node = new Node(other.value);
+        node.red = other.red;
+        return attach(node, copy(other.left), copy(other.right));
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, height(root));
+    }
+
+    private int height(Node node) {
+        return node == null ? 0 : 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    @Override
+    public String toString() {
+        return "RBT{" + root + "}";
+    }
+
+    public static void main(String[] args) {
+        RedBlackTree<Integer> tree = new RedBlackTree<>();
+        tree.add(10);
+        tree.add(5);
+        tree.add(15);
+        System.out.println(tree.inorderTraverse());
+        System.out.println(tree.size);
+        System.out.println(tree);
+        tree.remove(10);
+        tree.remove(15);
+        System.out.println(tree.size);
+        System.out.println(tree);
+
+        System.out.println("------------");
+        Random rnd = new Random();
+        tree = new RedBlackTree<>();
+        for (int i = 0; i < 15; i++) {
+            tree.add(rnd.nextInt(50));
+        }
+        System.out.println(tree.inorderTraverse());
+    }
 }
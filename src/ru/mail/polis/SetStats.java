@@ -0,0 +1,244 @@
+package ru.mail.polis;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Snapshot of the counters of a set, see {@link ISet#stats()}.
+ * <p>
+ * Counters are collected only when the JVM runs with {@code -Dru.mail.polis.metrics=true},
+ * otherwise {@link #isEnabled()} is false and only the size and the height are filled.
+ * <p>
+ * A probe is one lookup in {@code contains} or {@code add}; its length is the number of chain nodes,
+ * slots or tree nodes it looked at. Bucket 0 of {@link #getProbeHistogram()} counts probes of length 0,
+ * bucket k counts lengths from 2^(k-1) to 2^k - 1: a long tail there means degenerate hashing or an unbalanced tree.
+ * Rehash time of incremental and cooperative tables is the sum of the steps, and the maximum is the longest step.
+ */
+public final class SetStats implements SetStatsMXBean {
+
+    private final String implementation;
+    private final boolean enabled;
+    private final int size;
+    private final int height;
+    private final long comparisons;
+    private final long rotations;
+    private final long rehashes;
+    private final long rehashNanos;
+    private final long maxRehashNanos;
+    private final long probes;
+    private final long probeLength;
+    private final int maxProbeLength;
+    private final long[] histogram;
+
+    SetStats(String implementation, int size, int height) {
+        this(implementation, false, size, height, 0, 0, 0, 0, 0, 0, 0, 0, new long[Metrics.BUCKETS]);
+    }
+
+    SetStats(String implementation, int size, int height, long comparisons, long rotations,
+             long rehashes, long rehashNanos, long maxRehashNanos,
+             long probes, long probeLength, int maxProbeLength, long[] histogram) {
+        this(implementation, true, size, height, comparisons, rotations, rehashes, rehashNanos, maxRehashNanos,
+                probes, probeLength, maxProbeLength, histogram);
+    }
+
+    private SetStats(String implementation, boolean enabled, int size, int height, long comparisons,
+                     long rotations, long rehashes, long rehashNanos, long maxRehashNanos,
+                     long probes, long probeLength, int maxProbeLength, long[] histogram) {
+        this.implementation = implementation;
+        this.enabled = enabled;
+        this.size = size;
+        this.height = height;
+        this.comparisons = comparisons;
+        this.rotations = rotations;
+        this.rehashes = rehashes;
+        this.rehashNanos = rehashNanos;
+        this.maxRehashNanos = maxRehashNanos;
+        this.probes = probes;
+        this.probeLength = probeLength;
+        this.maxProbeLength = maxProbeLength;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Registers a bean {@code ru.mail.polis:type=SetStats,name=<name>} in the platform MBean server,
+     * which takes a fresh snapshot of the set for every attribute
+     *
+     * @return name of the bean, to unregister it later
+     */
+    public static ObjectName register(ISet<?> set, String name) throws JMException {
+        ObjectName objectName = new ObjectName("ru.mail.polis:type=SetStats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(set), objectName);
+        return objectName;
+    }
+
+    public static void unregister(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    @Override
+    public String getImplementation() {
+        return implementation;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return height of a tree, number of levels of a skip list, -1 for hash tables
+     */
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    @Override
+    public long getRotations() {
+        return rotations;
+    }
+
+    @Override
+    public long getRehashes() {
+        return rehashes;
+    }
+
+    @Override
+    public double getRehashMillis() {
+        return rehashNanos / 1e6;
+    }
+
+    @Override
+    public double getMaxRehashMillis() {
+        return maxRehashNanos / 1e6;
+    }
+
+    @Override
+    public long getProbes() {
+        return probes;
+    }
+
+    @Override
+    public double getMeanProbeLength() {
+        return probes == 0 ? 0 : (double) probeLength / probes;
+    }
+
+    @Override
+    public int getMaxProbeLength() {
+        return maxProbeLength;
+    }
+
+    @Override
+    public long[] getProbeHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        if (!enabled) {
+            return implementation + "{size=" + size + ", height=" + height + ", metrics disabled}";
+        }
+        //Хвост из пустых корзин не печатаем
+        int buckets = histogram.length;
+        while (buckets > 0 && histogram[buckets - 1] == 0) {
+            buckets--;
+        }
+        return implementation + "{size=" + size
+                + ", height=" + height
+                + ", comparisons=" + comparisons
+                + ", rotations=" + rotations
+                + ", rehashes=" + rehashes
+                + String.format(", rehashMs=%.3f, maxRehashMs=%.3f", getRehashMillis(), getMaxRehashMillis())
+                + ", probes=" + probes
+                + String.format(", meanProbe=%.2f", getMeanProbeLength())
+                + ", maxProbe=" + maxProbeLength
+                + ", histogram=" + Arrays.toString(Arrays.copyOf(histogram, buckets))
+                + '}';
+    }
+
+    private static final class Bean implements SetStatsMXBean {
+
+        private final ISet<?> set;
+
+        Bean(ISet<?> set) {
+            this.set = set;
+        }
+
+        @Override
+        public String getImplementation() {
+            return set.stats().getImplementation();
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return set.stats().isEnabled();
+        }
+
+        @Override
+        public int getSize() {
+            return set.stats().getSize();
+        }
+
+        @Override
+        public int getHeight() {
+            return set.stats().getHeight();
+        }
+
+        @Override
+        public long getComparisons() {
+            return set.stats().getComparisons();
+        }
+
+        @Override
+        public long getRotations() {
+            return set.stats().getRotations();
+        }
+
+        @Override
+        public long getRehashes() {
+            return set.stats().getRehashes();
+        }
+
+        @Override
+        public double getRehashMillis() {
+            return set.stats().getRehashMillis();
+        }
+
+        @Override
+        public double getMaxRehashMillis() {
+            return set.stats().getMaxRehashMillis();
+        }
+
+        @Override
+        public long getProbes() {
+            return set.stats().getProbes();
+        }
+
+        @Override
+        public double getMeanProbeLength() {
+            return set.stats().getMeanProbeLength();
+        }
+
+        @Override
+        public int getMaxProbeLength() {
+            return set.stats().getMaxProbeLength();
+        }
+
+        @Override
+        public long[] getProbeHistogram() {
+            return set.stats().getProbeHistogram();
+        }
+    }
+}
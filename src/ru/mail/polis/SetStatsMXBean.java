@@ -0,0 +1,34 @@
+package ru.mail.polis;
+
+/**
+ * JMX view of {@link SetStats}, registered by {@link SetStats#register(ISet, String)}.
+ * Every attribute is read from a fresh snapshot of the set.
+ */
+public interface SetStatsMXBean {
+
+    String getImplementation();
+
+    boolean isEnabled();
+
+    int getSize();
+
+    int getHeight();
+
+    long getComparisons();
+
+    long getRotations();
+
+    long getRehashes();
+
+    double getRehashMillis();
+
+    double getMaxRehashMillis();
+
+    long getProbes();
+
+    double getMeanProbeLength();
+
+    int getMaxProbeLength();
+
+    long[] getProbeHistogram();
+}
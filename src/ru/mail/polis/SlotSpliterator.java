@@ -0,0 +1,110 @@
+package ru.mail.polis;
+
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator of a hash table over a range of its slots. A split halves the range,
+ * so a scan of the table is shared between threads without copying the elements.
+ * The size of every part is estimated from its share of the slots;
+ * only the whole table of a set that does not change meanwhile reports an exact size.
+ * <p>
+ * The table must not be changed during the traversal unless it says otherwise.
+ */
+final class SlotSpliterator<E> implements Spliterator<E> {
+
+    /**
+     * Reads one slot of the table
+     */
+    @FunctionalInterface
+    interface Slots<E> {
+
+        /**
+         * Passes every element of the slot to the action
+         */
+        void forEachIn(int slot, Consumer<? super E> action);
+    }
+
+    private final Slots<E> slots;
+    private int index;
+    private final int fence;
+    private long estimate;
+    private int characteristics;
+    //Оставшиеся элементы начатой корзины
+    private ArrayDeque<E> pending;
+
+    /**
+     * @param characteristics {@link Spliterator#CONCURRENT} for a table that may change meanwhile;
+     *                        then the size is only an estimate and the spliterator is not SIZED
+     */
+    SlotSpliterator(Slots<E> slots, int capacity, int size, int characteristics) {
+        this(slots, 0, capacity, size, (characteristics & Spliterator.CONCURRENT) != 0
+                ? characteristics : Spliterator.SIZED | characteristics);
+    }
+
+    private SlotSpliterator(Slots<E> slots, int index, int fence, long estimate, int characteristics) {
+        this.slots = slots;
+        this.index = index;
+        this.fence = fence;
+        this.estimate = estimate;
+        this.characteristics = characteristics;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        if (action == null) {
+            throw new NullPointerException("action is null");
+        }
+        if (pending == null) {
+            pending = new ArrayDeque<>();
+        }
+        while (pending.isEmpty() && index < fence) {
+            slots.forEachIn(index++, pending::add);
+        }
+        if (pending.isEmpty()) {
+            return false;
+        }
+        action.accept(pending.poll());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+        if (action == null) {
+            throw new NullPointerException("action is null");
+        }
+        if (pending != null) {
+            while (!pending.isEmpty()) {
+                action.accept(pending.poll());
+            }
+        }
+        for (; index < fence; index++) {
+            slots.forEachIn(index, action);
+        }
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        int lo = index;
+        int mid = (lo + fence) >>> 1;
+        if (mid <= lo || pending != null && !pending.isEmpty()) {
+            return null;
+        }
+        index = mid;
+        //Точный размер частей неизвестен
+        characteristics &= ~Spliterator.SIZED;
+        estimate >>>= 1;
+        return new SlotSpliterator<>(slots, lo, mid, estimate, characteristics);
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.DISTINCT | Spliterator.NONNULL | characteristics;
+    }
+}
@@ -0,0 +1,458 @@
+package ru.mail.polis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Binary snapshots of sets, streamed through a {@link FileChannel} with a large buffer.
+ * <p>
+ * A snapshot starts with a header: magic, format version and the kind of the set.
+ * Snapshots of version 1, written before hash strategies, are read as well:
+ * their hash tables get back the hashing of that time.
+ * Sorted sets are written in order and loaded by a linear-time bulk build
+ * such as {@link AVLTree#fromSorted(Iterable)}. Hash tables are written slot by slot,
+ * tombstones included, and loaded into the same slots, so loading needs no rehash;
+ * the kind and the seed of their {@link HashStrategy} are saved for that.
+ * A bounded {@link ChainHashTable} is saved with its bound and eviction policy, its keys in the order of eviction.
+ * <p>
+ * A snapshot is written into a temporary file, forced to the disk and renamed over the target,
+ * so the target always holds a complete snapshot.
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x534E4150; //"SNAP"
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    //Вид множества в заголовке
+    static final byte SORTED = 1;
+    static final byte OPEN_HASH = 2;
+    static final byte CHAIN_HASH = 3;
+    static final byte INT_OPEN_HASH = 4;
+    static final byte LONG_OPEN_HASH = 5;
+    static final byte BOUNDED_CHAIN_HASH = 6;
+
+    //Состояния ячеек хеш-таблиц
+    static final byte FREE = 0;
+    static final byte FULL = 1;
+    static final byte DELETED = 2;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes the elements of a sorted set in ascending order
+     */
+    public static <E extends Comparable<E>> void save(Path path, ISortedSet<E> set, Codec<E> codec)
+            throws IOException {
+        try (Writer out = new Writer(path, SORTED)) {
+            //Размер дописывается в конце: у конкурентных множеств он может измениться во время обхода
+            long countPosition = out.position();
+            out.ensure(Integer.BYTES).putInt(0);
+            int count = 0;
+            for (E value : set) {
+                out.element(value, codec);
+                count++;
+            }
+            out.patchInt(countPosition, count);
+            out.commit();
+        }
+    }
+
+    /**
+     * Reads a snapshot of a sorted set and passes its elements to a linear-time build, for example
+     * {@code Snapshot.loadSorted(path, Codec.INT, AVLTree::fromSorted)}
+     *
+     * @throws IOException if the file is not a snapshot of a sorted set or is truncated
+     */
+    public static <E extends Comparable<E>, S extends ISortedSet<E>> S loadSorted(Path path, Codec<E> codec,
+                                                                                 Function<List<E>, S> build)
+            throws IOException {
+        List<E> values;
+        try (Reader in = new Reader(path, SORTED)) {
+            int count = in.count();
+            values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(in.element(codec));
+            }
+        }
+        return build.apply(values);
+    }
+
+    /**
+     * Writes the slots of the table as they are. Keys of a packed table are written packed, without the codec.
+     */
+    public static <E extends Comparable<E>> void save(Path path, OpenHashTable<E> table, Codec<E> codec)
+            throws IOException {
+        try (Writer out = new Writer(path, OPEN_HASH)) {
+            table.writeSlots(out, codec);
+            out.commit();
+        }
+    }
+
+    public static <E extends Comparable<E>> OpenHashTable<E> loadOpenHashTable(Path path, Codec<E> codec,
+                                                                              Comparator<E> comparator)
+            throws IOException {
+        try (Reader in = new Reader(path, OPEN_HASH)) {
+            return OpenHashTable.readSlots(in, codec, comparator);
+        }
+    }
+
+    /**
+     * Writes the buckets of the table, finishing an incremental rehash first.
+     * A bounded table is written with its bound, eviction policy and order of eviction; the listener is not saved.
+     */
+    public static <E extends Comparable<E>> void save(Path path, ChainHashTable<E> table, Codec<E> codec)
+            throws IOException {
+        boolean bounded = table.maxSize() > 0;
+        try (Writer out = new Writer(path, bounded ? BOUNDED_CHAIN_HASH : CHAIN_HASH)) {
+            if (bounded) {
+                table.writeRing(out, codec);
+            } else {
+                table.writeBuckets(out, codec);
+            }
+            out.commit();
+        }
+    }
+
+    public static <E extends Comparable<E>> ChainHashTable<E> loadChainHashTable(Path path, Codec<E> codec,
+                                                                                Comparator<E> comparator)
+            throws IOException {
+        return loadChainHashTable(path, codec, comparator, null);
+    }
+
+    /**
+     * Loads a table with the same bound and eviction policy as the saved one
+     *
+     * @param listener called with every key the loaded bounded table evicts, may be null
+     */
+    public static <E extends Comparable<E>> ChainHashTable<E> loadChainHashTable(Path path, Codec<E> codec,
+                                                                                Comparator<E> comparator,
+                                                                                Consumer<? super E> listener)
+            throws IOException {
+        try (Reader in = new Reader(path, CHAIN_HASH, BOUNDED_CHAIN_HASH)) {
+            if (in.kind() == BOUNDED_CHAIN_HASH) {
+                return ChainHashTable.readRing(in, codec, comparator, listener);
+            }
+            return ChainHashTable.readBuckets(in, codec, comparator);
+        }
+    }
+
+    public static void save(Path path, IntOpenHashSet set) throws IOException {
+        try (Writer out = new Writer(path, INT_OPEN_HASH)) {
+            set.writeSlots(out);
+            out.commit();
+        }
+    }
+
+    public static IntOpenHashSet loadIntOpenHashSet(Path path) throws IOException {
+        try (Reader in = new Reader(path, INT_OPEN_HASH)) {
+            return IntOpenHashSet.readSlots(in);
+        }
+    }
+
+    public static void save(Path path, LongOpenHashSet set) throws IOException {
+        try (Writer out = new Writer(path, LONG_OPEN_HASH)) {
+            set.writeSlots(out);
+            out.commit();
+        }
+    }
+
+    public static LongOpenHashSet loadLongOpenHashSet(Path path) throws IOException {
+        try (Reader in = new Reader(path, LONG_OPEN_HASH)) {
+            return LongOpenHashSet.readSlots(in);
+        }
+    }
+
+    /**
+     * Buffered output into a temporary file, which replaces the target on {@link #commit()}
+     */
+    static final class Writer implements Closeable {
+
+        private final Path path;
+        private final Path tmp;
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean committed;
+
+        Writer(Path path, byte kind) throws IOException {
+            this.path = path;
+            this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC).putInt(VERSION).put(kind);
+        }
+
+        /**
+         * @return buffer with at least the given number of bytes remaining
+         */
+        ByteBuffer ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+                if (buffer.capacity() < bytes) {
+                    buffer = ByteBuffer.allocate(bytes);
+                }
+            }
+            return buffer;
+        }
+
+        <E> void element(E value, Codec<E> codec) throws IOException {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            int size = codec.fixedSize();
+            if (size >= 0) {
+                codec.write(value, ensure(size));
+            } else {
+                size = codec.size(value);
+                codec.write(value, ensure(Integer.BYTES + size).putInt(size));
+            }
+        }
+
+        void bytes(byte[] bytes) throws IOException {
+            ensure(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the strategy is not built-in and cannot be restored
+         */
+        void strategy(HashStrategy<?> strategy) throws IOException {
+            if (!(strategy instanceof Mixer)) {
+                throw new IllegalArgumentException("custom hash strategy cannot be saved: " + strategy);
+            }
+            Mixer<?> mixer = (Mixer<?>) strategy;
+            ensure(1 + Long.BYTES).put(mixer.kind()).putLong(mixer.seed());
+        }
+
+        /**
+         * Writes the array without a length, by whole buffers
+         */
+        void array(byte[] array) throws IOException {
+            for (int from = 0; from < array.length; ) {
+                int length = Math.min(array.length - from, ensure(1).remaining());
+                buffer.put(array, from, length);
+                from += length;
+            }
+        }
+
+        void array(int[] array) throws IOException {
+            for (int from = 0; from < array.length; ) {
+                int length = Math.min(array.length - from, ensure(Integer.BYTES).remaining() / Integer.BYTES);
+                buffer.asIntBuffer().put(array, from, length);
+                buffer.position(buffer.position() + length * Integer.BYTES);
+                from += length;
+            }
+        }
+
+        void array(long[] array) throws IOException {
+            for (int from = 0; from < array.length; ) {
+                int length = Math.min(array.length - from, ensure(Long.BYTES).remaining() / Long.BYTES);
+                buffer.asLongBuffer().put(array, from, length);
+                buffer.position(buffer.position() + length * Long.BYTES);
+                from += length;
+            }
+        }
+
+        long position() throws IOException {
+            return channel.position() + buffer.position();
+        }
+
+        void patchInt(long position, int value) throws IOException {
+            flush();
+            ByteBuffer patch = ByteBuffer.allocate(Integer.BYTES).putInt(0, value);
+            while (patch.hasRemaining()) {
+                channel.write(patch, position + patch.position());
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void commit() throws IOException {
+            flush();
+            channel.force(false);
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Buffered input, which checks the header on opening
+     */
+    static final class Reader implements Closeable {
+
+        private final Path path;
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final int version;
+        private final byte kind;
+
+        /**
+         * @param kinds kinds of sets the snapshot may hold
+         */
+        Reader(Path path, byte... kinds) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            buffer.flip();
+            ByteBuffer header = need(2 * Integer.BYTES + 1);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("not a snapshot: " + path);
+            }
+            version = header.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("unsupported snapshot version " + version + ": " + path);
+            }
+            kind = header.get();
+            for (byte expected : kinds) {
+                if (kind == expected) {
+                    return;
+                }
+            }
+            throw new IOException("snapshot of another kind of set (" + kind + "): " + path);
+        }
+
+        byte kind() {
+            return kind;
+        }
+
+        /**
+         * @return buffer with at least the given number of bytes to read
+         * @throws IOException if the file ends earlier
+         */
+        ByteBuffer need(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return buffer;
+            }
+            buffer.compact();
+            if (buffer.capacity() < bytes) {
+                buffer.flip();
+                buffer = ByteBuffer.allocate(bytes).put(buffer);
+            }
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("truncated snapshot: " + path);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * @return non-negative number of elements, slots or buckets
+         */
+        int count() throws IOException {
+            int count = need(Integer.BYTES).getInt();
+            if (count < 0) {
+                throw new IOException("corrupted snapshot: " + path);
+            }
+            return count;
+        }
+
+        /**
+         * @return power of two capacity of a hash table
+         */
+        int capacity() throws IOException {
+            int capacity = count();
+            if (Integer.bitCount(capacity) != 1) {
+                throw new IOException("corrupted snapshot: " + path);
+            }
+            return capacity;
+        }
+
+        <E> E element(Codec<E> codec) throws IOException {
+            int size = codec.fixedSize();
+            if (size < 0) {
+                size = count();
+            }
+            ByteBuffer in = need(size);
+            int end = in.position() + size;
+            E value = codec.read(in, size);
+            if (in.position() != end) {
+                throw new IOException("codec read " + (in.position() - end + size) + " bytes of " + size + ": " + path);
+            }
+            return value;
+        }
+
+        byte[] bytes() throws IOException {
+            byte[] bytes = new byte[count()];
+            need(bytes.length).get(bytes);
+            return bytes;
+        }
+
+        /**
+         * @param legacy kind of the unseeded strategy the table hashed by in version 1, where it is not written
+         * @return the hash strategy written by {@link Writer#strategy}, with the same seed
+         */
+        <E> Mixer<E> strategy(byte legacy) throws IOException {
+            if (version == 1) {
+                return new Mixer<>(legacy, 0);
+            }
+            ByteBuffer in = need(1 + Long.BYTES);
+            byte kind = in.get();
+            long seed = in.getLong();
+            if (kind < Mixer.IDENTITY || kind > Mixer.SPREAD) {
+                throw new IOException("unknown hash strategy " + kind + ": " + path);
+            }
+            return new Mixer<>(kind, seed);
+        }
+
+        /**
+         * Fills the array written by {@link Writer#array(byte[])}, by whole buffers
+         */
+        void array(byte[] array) throws IOException {
+            for (int from = 0; from < array.length; ) {
+                int length = Math.min(array.length - from, Math.max(buffer.remaining(), 1));
+                need(length).get(array, from, length);
+                from += length;
+            }
+        }
+
+        void array(int[] array) throws IOException {
+            for (int from = 0; from < array.length; ) {
+                int length = Math.min(array.length - from, Math.max(buffer.remaining() / Integer.BYTES, 1));
+                need(length * Integer.BYTES).asIntBuffer().get(array, from, length);
+                buffer.position(buffer.position() + length * Integer.BYTES);
+                from += length;
+            }
+        }
+
+        void array(long[] array) throws IOException {
+            for (int from = 0; from < array.length; ) {
+                int length = Math.min(array.length - from, Math.max(buffer.remaining() / Long.BYTES, 1));
+                need(length * Long.BYTES).asLongBuffer().get(array, from, length);
+                buffer.position(buffer.position() + length * Long.BYTES);
+                from += length;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * View of the elements of a sorted set in the range [from, to).
+ * Every operation is translated into one or two operations on the backing set,
+ * so the view is as fast as the set itself: with subtree sizes {@link #size()} and {@link #select(int)}
+ * are logarithmic and iteration costs O(log n + k).
+ */
+class SubSet<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private final ISortedSet<E> set;
+    private final E from;
+    private final E to;
+
+    SubSet(ISortedSet<E> set, E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("bound is null");
+        }
+        this.set = set;
+        this.from = from;
+        this.to = to;
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from > to: " + from + " > " + to);
+        }
+    }
+
+    @Override
+    public int size() {
+        return set.rank(to) - set.rank(from);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        E first = set.ceiling(from);
+        return first == null || compare(first, to) >= 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return inRange(value) && set.contains(value);
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (!inRange(value)) {
+            throw new IllegalArgumentException("value out of range: " + value);
+        }
+        return set.add(value);
+    }
+
+    @Override
+    public boolean remove(E value) {
+        return inRange(value) && set.remove(value);
+    }
+
+    @Override
+    public E first() {
+        E first = set.ceiling(from);
+        if (first == null || compare(first, to) >= 0) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return first;
+    }
+
+    @Override
+    public E last() {
+        E last = set.lower(to);
+        if (last == null || compare(last, from) < 0) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return last;
+    }
+
+    @Override
+    public Comparator<E> comparator() {
+        return set.comparator();
+    }
+
+    @Override
+    public E floor(E value) {
+        return inRangeOrNull(compare(value, to) >= 0 ? set.lower(to) : set.floor(value));
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return inRangeOrNull(compare(value, from) < 0 ? set.ceiling(from) : set.ceiling(value));
+    }
+
+    @Override
+    public E lower(E value) {
+        return inRangeOrNull(compare(value, to) > 0 ? set.lower(to) : set.lower(value));
+    }
+
+    @Override
+    public E higher(E value) {
+        return inRangeOrNull(compare(value, from) < 0 ? set.ceiling(from) : set.higher(value));
+    }
+
+    @Override
+    public int rank(E value) {
+        if (compare(value, from) <= 0) {
+            return 0;
+        }
+        int base = set.rank(from);
+        return (compare(value, to) >= 0 ? set.rank(to) : set.rank(value)) - base;
+    }
+
+    @Override
+    public E select(int index) {
+        int base = set.rank(from);
+        if (index < 0 || index >= set.rank(to) - base) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + (set.rank(to) - base));
+        }
+        return set.select(base + index);
+    }
+
+    @Override
+    public ISortedSet<E> subSet(E from, E to) {
+        E lo = compare(from, this.from) > 0 ? from : this.from;
+        E hi = compare(to, this.to) < 0 ? to : this.to;
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from > to: " + from + " > " + to);
+        }
+        //Пересечение диапазонов пусто - пустой вид
+        return new SubSet<>(set, lo, compare(lo, hi) > 0 ? lo : hi);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return iterator(from);
+    }
+
+    @Override
+    public Iterator<E> iterator(E start) {
+        Iterator<E> iterator = set.iterator(compare(start, from) > 0 ? start : from);
+        return new Iterator<E>() {
+
+            private E next = advance();
+
+            private E advance() {
+                if (iterator.hasNext()) {
+                    E value = iterator.next();
+                    if (compare(value, to) < 0) {
+                        return value;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                E value = next;
+                next = advance();
+                return value;
+            }
+        };
+    }
+
+    private boolean inRange(E value) {
+        return compare(value, from) >= 0 && compare(value, to) < 0;
+    }
+
+    private E inRangeOrNull(E value) {
+        return value != null && inRange(value) ? value : null;
+    }
+
+    private int compare(E v1, E v2) {
+        Comparator<E> comparator = set.comparator();
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    @Override
+    public String toString() {
+        return "SubSet" + inorderTraverse();
+    }
+}
@@ -0,0 +1,280 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+
+/**
+ * Open addressing in the manner of a Swiss table. Besides its key, every slot has a control byte:
+ * free, deleted, or the low 7 bits of the hash of the key (a fingerprint).
+ * The control bytes of a group of eight slots share one long, so a few word operations
+ * find the slots of the group whose fingerprint matches, and a key is compared only on a match.
+ * <p>
+ * Groups are probed quadratically; their number is a power of two, so the probe sequence visits every group.
+ * A probe stops at the first group with a free slot, which lets the table be rehashed
+ * only when the load factor (live keys and tombstones) exceeds 7/8.
+ */
+public class SwissHashTable<E extends Comparable<E>> implements ISet<E> {
+
+    private static final int GROUP = Long.BYTES;
+    private static final int INITIAL_GROUPS = 1;
+    private static final long LSB = 0x0101010101010101L;
+    private static final long MSB = 0x8080808080808080L;
+    //Управляющие байты: у занятой ячейки старший бит равен нулю, остальные биты - отпечаток хеша
+    private static final int FREE = 0x80;
+    private static final int DELETED = 0xFE;
+    private static final long ALL_FREE = FREE * LSB;
+
+    private final Comparator<E> comparator;
+    private long[] control;
+    private Object[] keys;
+    private int size;
+    //Занятые ячейки вместе с удалёнными
+    private int used;
+    private final Metrics metrics = Metrics.create();
+
+    public SwissHashTable() {
+        this(null);
+    }
+
+    public SwissHashTable(Comparator<E> comparator) {
+        this.comparator = comparator;
+        allocate(INITIAL_GROUPS);
+    }
+
+    private void allocate(int groups) {
+        control = new long[groups];
+        Arrays.fill(control, ALL_FREE);
+        keys = new Object[groups * GROUP];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return indexOf(value, hash(value)) >= 0;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = hash(value);
+        if (indexOf(value, h) >= 0) {
+            return false;
+        }
+        int idx = insertionSlot(h);
+        //Свободная ячейка сверх 7/8 таблицы - перестраиваем, удалённую можно занять и так
+        if (controlAt(idx) == FREE && (used + 1) * 8L > keys.length * 7L) {
+            resize();
+            idx = insertionSlot(h);
+        }
+        if (controlAt(idx) == FREE) {
+            used++;
+        }
+        setControl(idx, h & 0x7F);
+        keys[idx] = value;
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int idx = indexOf(value, hash(value));
+        if (idx < 0) {
+            return false;
+        }
+        keys[idx] = null;
+        size--;
+        //В группе со свободной ячейкой не останавливался ни один поиск - метка удаления не нужна
+        if (matchFree(control[idx / GROUP]) != 0) {
+            setControl(idx, FREE);
+            used--;
+        } else {
+            setControl(idx, DELETED);
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int indexOf(E value, int h) {
+        long[] ctrl = control;
+        int mask = ctrl.length - 1;
+        long pattern = LSB * (h & 0x7F);
+        int group = (h >>> 7) & mask;
+        for (int probe = 1; ; probe++) {
+            long word = ctrl[group];
+            for (long m = match(word, pattern); m != 0; m &= m - 1) {
+                int idx = group * GROUP + (Long.numberOfTrailingZeros(m) >>> 3);
+                if (compare((E) keys[idx], value) == 0) {
+                    if (Metrics.ENABLED) {
+                        metrics.probed(probe);
+                    }
+                    return idx;
+                }
+            }
+            if (matchFree(word) != 0) {
+                if (Metrics.ENABLED) {
+                    metrics.probed(probe);
+                }
+                return -1;
+            }
+            group = (group + probe) & mask;
+        }
+    }
+
+    /**
+     * @return the first free or deleted slot on the probe sequence of the hash
+     */
+    private int insertionSlot(int h) {
+        int mask = control.length - 1;
+        int group = (h >>> 7) & mask;
+        for (int probe = 1; ; probe++) {
+            long m = matchFreeOrDeleted(control[group]);
+            if (m != 0) {
+                return group * GROUP + (Long.numberOfTrailingZeros(m) >>> 3);
+            }
+            group = (group + probe) & mask;
+        }
+    }
+
+    /**
+     * Old trick of finding a zero byte: a byte of {@code word ^ pattern} gets its high bit
+     * if it is zero, and may get it falsely only above a zero byte, then the key comparison rejects it.
+     * Free and deleted bytes have the high bit that the fingerprint lacks, so they never match.
+     */
+    private static long match(long word, long pattern) {
+        long x = word ^ pattern;
+        return (x - LSB) & ~x & MSB;
+    }
+
+    /**
+     * Of the bytes with the high bit only the free one has zero in bit 1
+     */
+    private static long matchFree(long word) {
+        return word & ~(word << 6) & MSB;
+    }
+
+    /**
+     * Free and deleted bytes both have zero in bit 0
+     */
+    private static long matchFreeOrDeleted(long word) {
+        return word & ~(word << 7) & MSB;
+    }
+
+    private int controlAt(int idx) {
+        return (int) (control[idx / GROUP] >>> (idx % GROUP * Byte.SIZE)) & 0xFF;
+    }
+
+    private void setControl(int idx, int b) {
+        int shift = idx % GROUP * Byte.SIZE;
+        long[] ctrl = control;
+        ctrl[idx / GROUP] = ctrl[idx / GROUP] & ~(0xFFL << shift) | (long) b << shift;
+    }
+
+    /**
+     * Low 7 bits are the fingerprint, the rest choose the group,
+     * so the keys are mixed by multiplication first
+     */
+    private static int hash(Object value) {
+        int h = value.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int compare(E v1, E v2) {
+        if (Metrics.ENABLED) {
+            metrics.compared();
+        }
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * Doubles the table, or rebuilds it with the same capacity
+     * if it is mostly filled with tombstones
+     */
+    private void resize() {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        Object[] old = keys;
+        int groups = size * 16L > old.length * 7L ? control.length << 1 : control.length;
+        allocate(groups);
+        used = size;
+        for (Object stored : old) {
+            if (stored == null) {
+                continue;
+            }
+            int h = hash(stored);
+            int idx = insertionSlot(h);
+            setControl(idx, h & 0x7F);
+            keys[idx] = stored;
+        }
+        if (Metrics.ENABLED) {
+            metrics.rehashed();
+            metrics.paused(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Splits by ranges of slots of the current array
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Spliterator<E> spliterator() {
+        Object[] tab = keys;
+        return new SlotSpliterator<E>((idx, action) -> {
+            Object stored = tab[idx];
+            if (stored != null) {
+                action.accept((E) stored);
+            }
+        }, tab.length, size, 0);
+    }
+
+    @Override
+    public SetStats stats() {
+        return Metrics.stats(metrics, this, -1);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Swiss{");
+        for (Object stored : keys) {
+            if (stored == null) {
+                continue;
+            }
+            if (sb.length() > 6) {
+                sb.append(", ");
+            }
+            sb.append(stored);
+        }
+        return sb.append('}').toString();
+    }
+
+    public static void main(String[] args) {
+        SwissHashTable<String> ts = new SwissHashTable<>();
+        ts.add("abc");
+        ts.add("abc");
+        ts.add("bcd");
+        ts.add("cde");
+        ts.add("qwerty");
+        ts.add("polis");
+        System.out.println(ts.size());
+        System.out.println(ts);
+        ts.remove("abc");
+        System.out.println(ts.contains("abc") + " " + ts.contains("polis"));
+        System.out.println(ts);
+    }
+}
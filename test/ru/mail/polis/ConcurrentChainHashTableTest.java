@@ -0,0 +1,75 @@
+package ru.mail.polis;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Streams of {@link ConcurrentChainHashTable} while other threads add and remove keys.
+ * A SIZED spliterator of a changing table made {@code toArray()} fail with
+ * "Accept exceeded fixed size", so the spliterator must not be SIZED.
+ * <p>
+ * Usage: {@code java -ea ru.mail.polis.ConcurrentChainHashTableTest}
+ */
+public class ConcurrentChainHashTableTest {
+
+    private static final int WRITERS = 6;
+    private static final int KEYS = 1 << 12;
+    private static final int CALLS = 500;
+
+    public static void main(String[] args) throws InterruptedException {
+        ConcurrentChainHashTable<Integer> table = new ConcurrentChainHashTable<>();
+        for (int i = 0; i < KEYS; i += 2) {
+            table.add(i);
+        }
+        check((table.spliterator().characteristics() & Spliterator.SIZED) == 0, "spliterator is SIZED");
+        check(table.spliterator().hasCharacteristics(Spliterator.CONCURRENT), "spliterator is not CONCURRENT");
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(WRITERS);
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            int seed = w;
+            writers[w] = new Thread(() -> {
+                started.countDown();
+                //Нечётные ключи появляются и исчезают, чётные остаются на месте
+                for (int i = seed; !stop.get(); i += WRITERS) {
+                    int key = (i * 2 + 1) % KEYS;
+                    table.add(key);
+                    table.remove((key + KEYS / 2) % KEYS | 1);
+                }
+            });
+            writers[w].start();
+        }
+        started.await();
+        try {
+            for (int call = 0; call < CALLS; call++) {
+                Object[] array = call % 2 == 0 ? table.stream().toArray() : table.parallelStream().toArray();
+                List<Integer> list = table.stream().collect(Collectors.toList());
+                check(array.length >= KEYS / 2 && list.size() >= KEYS / 2, "stable keys are lost");
+                check(table.stream().filter(x -> x % 2 == 0).count() == KEYS / 2, "stable keys are lost");
+            }
+        } catch (Throwable e) {
+            failure.set(e);
+        } finally {
+            stop.set(true);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("stream failed under concurrent writers", failure.get());
+        }
+        System.out.println("ConcurrentChainHashTableTest OK");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.mail.polis;
+
+/**
+ * Equality of packed strings, where a shorter string may take as many bytes as a longer one.
+ * <p>
+ * Usage: {@code java -ea -Dru.mail.polis.metrics=true ru.mail.polis.PackedLowercaseTest}
+ */
+public class PackedLowercaseTest {
+
+    public static void main(String[] args) {
+        //"az" и "aza" занимают по два байта: третья буква умещается в последний байт
+        check(!PackedLowercase.matches(PackedLowercase.pack("aza"), "az"), "aza matches az");
+        check(!PackedLowercase.matches(PackedLowercase.pack("az"), "aza"), "az matches aza");
+        check(PackedLowercase.matches(PackedLowercase.pack("az"), "az"), "az does not match itself");
+        check(!PackedLowercase.matches(PackedLowercase.pack("a"), ""), "a matches the empty string");
+        check(PackedLowercase.matches(PackedLowercase.pack(""), ""), "empty string does not match itself");
+
+        //Каждая строка отличается от всех своих префиксов, в том числе той же упакованной длины
+        String word = "abcdefghijklmnopqrstuvwxyz";
+        for (int length = 0; length <= word.length(); length++) {
+            byte[] packed = PackedLowercase.pack(word.substring(0, length));
+            for (int prefix = 0; prefix <= word.length(); prefix++) {
+                check(PackedLowercase.matches(packed, word.substring(0, prefix)) == (prefix == length),
+                        word.substring(0, length) + " vs " + word.substring(0, prefix));
+            }
+        }
+
+        OpenHashTable<String> table = OpenHashTable.packed();
+        check(table.add("aza"), "aza is not added");
+        check(!table.contains("az"), "table contains the prefix az");
+        check(table.add("az"), "prefix az is not added");
+        check(table.size() == 2 && table.remove("az") && table.contains("aza"), "keys are mixed up");
+
+        //Отвергнутая строка не должна занимать место в таблице: иначе таблица растёт без ключей
+        OpenHashTable<String> rejecting = OpenHashTable.packed();
+        for (int i = 0; i < 1000; i++) {
+            try {
+                rejecting.add("Key" + i);
+                throw new AssertionError("uppercase key is added");
+            } catch (IllegalArgumentException expected) {
+                //ожидаемо
+            }
+        }
+        check(rejecting.isEmpty(), "rejected keys are counted");
+        //Первая же удачная вставка перестроила бы таблицу, если бы отказы заняли ячейки
+        check(rejecting.add("key"), "key is not added");
+        if (Metrics.ENABLED) {
+            check(rejecting.stats().getRehashes() == 0, "rejected keys cause rehashes");
+        }
+        System.out.println("PackedLowercaseTest OK");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
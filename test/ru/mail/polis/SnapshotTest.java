@@ -0,0 +1,146 @@
+package ru.mail.polis;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Snapshots of bounded hash tables keep the bound, the eviction policy and the order of eviction.
+ * Snapshots of version 1 are still read, their hash tables find every key in its old slot.
+ * <p>
+ * Usage: {@code java -ea ru.mail.polis.SnapshotTest}
+ */
+public class SnapshotTest {
+
+    private static final int MAX_SIZE = 100;
+    //Снимки версии 1, записанные кодом до появления стратегий хеширования
+    private static final String V1_OPEN = "U05BUAAAAAECAAAAAEAAAAATAAAAGAIAAAEAAAEDAAABAAACBgAAAQAAAwkBAAAASgAAAQAAAU0AAAEAAAJQAAABAAADUwEA"
+            + "AACUAAABAAABlwAAAQAAApoAAAABAAAA3gAAAQAAAeEAAAIBAAAAJQAAAQAAASgAAAIAAAEAAAMuAQAAAG8AAAIAAAEAAAJ1"
+            + "AAAAAgAAAQAAAbwAAAEAAAK/";
+    private static final String V1_PACKED = "U05BUAAAAAECAQAAABAAAAAGAAAABwAAAAEAAAAEqxQ4AQABAAAABDCMVQgCAAEAAAAF0wU40aMAAAEAAAAFk8rkzgQBAAAA"
+            + "BuzdIkeYBQAAAQAAAAW2yJmeAw==";
+    private static final String V1_CHAIN = "U05BUAAAAAEDAAAAQAAAABgAAAABAAAAAAAAAAAAAAAAAAAAAAEAAAABAwAAAAAAAAAAAAAAAQAAAAIGAAAAAAAAAAAAAAAB"
+            + "AAAAAwkAAAABAAAAAEoAAAAAAAAAAAAAAAEAAAABTQAAAAAAAAAAAAAAAQAAAAJQAAAAAAAAAAAAAAABAAAAA1MAAAABAAAA"
+            + "AJQAAAAAAAAAAAAAAAEAAAABlwAAAAAAAAAAAAAAAQAAAAKaAAAAAAAAAAAAAAAAAAAAAQAAAADeAAAAAAAAAAAAAAABAAAA"
+            + "AeEAAAAAAAAAAAAAAAEAAAAC5AAAAAEAAAAAJQAAAAAAAAAAAAAAAQAAAAEoAAAAAAAAAAAAAAABAAAAAisAAAAAAAAAAAAA"
+            + "AAEAAAADLgAAAAEAAAAAbwAAAAAAAAAAAAAAAQAAAAFyAAAAAAAAAAAAAAABAAAAAnUAAAAAAAAAAAAAAAAAAAABAAAAALkA"
+            + "AAAAAAAAAAAAAAEAAAABvAAAAAAAAAAAAAAAAQAAAAK/";
+    private static final String V1_SORTED = "U05BUAAAAAEBAAAABgAAAAEAAAACAAAAAwAAAAUAAAAIAAAADQ==";
+    private static final String V1_INTS = "U05BUAAAAAEEAAAAIAAAAAoAAAAKAQEBAAAAAAABAQEAAAAAAAEBAAAAAAAAAQEAAAAAAAAAAAAAAAAPoAAAH0AAAAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAA+gAABOIAAAjKAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAH0AAAF3AAAAAAAAAAAAAAAAAAAAAAAAAA"
+            + "AAAAAAAAAAu4AAAbWAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA==";
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("snapshot-test");
+        try {
+            for (ChainHashTable.Eviction eviction : ChainHashTable.Eviction.values()) {
+                bounded(dir.resolve(eviction.name()), eviction);
+            }
+            unbounded(dir.resolve("unbounded"));
+            versionOne(dir.resolve("v1"));
+        } finally {
+            for (Path file : Files.newDirectoryStream(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("SnapshotTest OK");
+    }
+
+    private static void bounded(Path file, ChainHashTable.Eviction eviction) throws IOException {
+        List<Integer> evicted = new ArrayList<>();
+        ChainHashTable<Integer> table = ChainHashTable.bounded(MAX_SIZE, eviction, evicted::add);
+        for (int i = 0; i < MAX_SIZE + MAX_SIZE / 2; i++) {
+            table.add(i);
+        }
+        //Обращения к части ключей меняют порядок вытеснения, он тоже должен сохраниться
+        for (int i = MAX_SIZE; i > MAX_SIZE / 2; i -= 3) {
+            table.contains(i);
+        }
+        Snapshot.save(file, table, Codec.INT);
+
+        List<Integer> reloadedEvicted = new ArrayList<>();
+        ChainHashTable<Integer> reloaded = Snapshot.loadChainHashTable(file, Codec.INT, null, reloadedEvicted::add);
+        check(reloaded.maxSize() == MAX_SIZE, eviction + ": bound is lost, max size " + reloaded.maxSize());
+        check(reloaded.size() == MAX_SIZE, eviction + ": size " + reloaded.size());
+
+        evicted.clear();
+        for (int i = 0; i < 1000; i++) {
+            int key = 10_000 + i;
+            table.add(key);
+            reloaded.add(key);
+            //Ключи из середины считаются использованными в обеих таблицах
+            if (i % 7 == 0) {
+                table.contains(MAX_SIZE);
+                reloaded.contains(MAX_SIZE);
+            }
+            check(reloaded.size() <= MAX_SIZE, eviction + ": reloaded table grew to " + reloaded.size());
+        }
+        check(reloaded.size() == MAX_SIZE, eviction + ": size after adds " + reloaded.size());
+        check(evicted.equals(reloadedEvicted), eviction + ": order of eviction differs after loading");
+    }
+
+    private static void unbounded(Path file) throws IOException {
+        ChainHashTable<Integer> table = new ChainHashTable<>();
+        for (int i = 0; i < 1000; i++) {
+            table.add(i);
+        }
+        Snapshot.save(file, table, Codec.INT);
+        ChainHashTable<Integer> reloaded = Snapshot.loadChainHashTable(file, Codec.INT, null);
+        check(reloaded.maxSize() == 0 && reloaded.size() == 1000, "unbounded table changed on loading");
+        for (int i = 0; i < 1000; i++) {
+            check(reloaded.contains(i), "lost key " + i);
+        }
+    }
+
+    private static void versionOne(Path file) throws IOException {
+        write(file, V1_OPEN);
+        OpenHashTable<Integer> open = Snapshot.loadOpenHashTable(file, Codec.INT, null);
+        check(open.size() == 19, "v1 open table size " + open.size());
+        for (int i = 0; i < 24; i++) {
+            check(open.contains(i * 37) == (i % 5 != 0), "v1 open table lost or kept " + i * 37);
+        }
+        check(open.add(1) && open.remove(37) && !open.contains(37), "v1 open table does not change");
+
+        write(file, V1_PACKED);
+        OpenHashTable<String> packed = Snapshot.loadOpenHashTable(file, Codec.STRING, null);
+        for (String s : "snapshot version keeps packed lowercase strings".split(" ")) {
+            check(packed.contains(s), "v1 packed table lost " + s);
+        }
+        check(packed.size() == 6 && !packed.contains("one"), "v1 packed table kept a removed key");
+
+        write(file, V1_CHAIN);
+        ChainHashTable<Integer> chain = Snapshot.loadChainHashTable(file, Codec.INT, null);
+        check(chain.size() == 24, "v1 chain table size " + chain.size());
+        for (int i = 0; i < 24; i++) {
+            check(chain.contains(i * 37), "v1 chain table lost " + i * 37);
+        }
+        //Сохранённая заново таблица пишется уже в текущей версии
+        Snapshot.save(file, chain, Codec.INT);
+        check(Snapshot.loadChainHashTable(file, Codec.INT, null).contains(37), "v1 chain table is not saved again");
+
+        write(file, V1_SORTED);
+        AVLTree<Integer> sorted = Snapshot.loadSorted(file, Codec.INT, AVLTree::fromSorted);
+        check(Arrays.asList(1, 2, 3, 5, 8, 13).equals(sorted.inorderTraverse()), "v1 sorted set");
+
+        write(file, V1_INTS);
+        IntOpenHashSet ints = Snapshot.loadIntOpenHashSet(file);
+        for (int i = 0; i < 10; i++) {
+            check(ints.contains(i * 1000), "v1 int set lost " + i * 1000);
+        }
+    }
+
+    private static void write(Path file, String base64) throws IOException {
+        Files.write(file, Base64.getDecoder().decode(base64));
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}